@@ -0,0 +1,46 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+/**
+ * A flag that is checked by the stages of an operation between files.
+ * <p>
+ * A token created with a parent is also cancelled when the parent is, which
+ * lets a single stage be stopped without cancelling the whole operation.
+ *
+ * @author Patrik Karlström
+ */
+public class CancellationToken {
+
+    private volatile boolean mCancelled;
+    private final CancellationToken mParent;
+
+    public CancellationToken() {
+        this(null);
+    }
+
+    public CancellationToken(CancellationToken parent) {
+        mParent = parent;
+    }
+
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled || (mParent != null && mParent.isCancelled());
+    }
+}
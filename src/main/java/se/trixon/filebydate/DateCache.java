@@ -0,0 +1,224 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * The dates that a profile has read from the content of files, keyed by the
+ * {@link FileRecord#getIdentityHash()} of the file and the date source.
+ * <p>
+ * The keys are stored sorted, followed by the dates and the run in which each
+ * entry was last used, so the file is read with a few bulk reads.
+ * Entries that have not been used for {@link #MAX_AGE} runs are dropped when
+ * saving, a modified file gets a new key so its old entry ages out.
+ *
+ * @author Patrik Karlström
+ */
+public class DateCache {
+
+    private static final int HEADER_BYTES = 4 * Integer.BYTES;
+    private static final Logger LOGGER = Logger.getLogger(DateCache.class.getName());
+    private static final int MAGIC = 0x46424443;
+    private static final int MAX_AGE = 8;
+    private static final int VERSION = 1;
+
+    private int mAddedCount;
+    private long[] mAddedDates = new long[1024];
+    private long[] mAddedKeys = new long[1024];
+    private long[] mDates = new long[0];
+    private final File mFile;
+    private int mGeneration = 1;
+    private long[] mKeys = new long[0];
+    private int[] mUsed = new int[0];
+
+    public static DateCache open(Profile profile) {
+        File directory = new File(ProfileManager.getInstance().getDirectory(), "cache");
+        DateCache dateCache = new DateCache(new File(directory, ProcessedIndex.getBaseName(profile) + ".dates"));
+
+        try {
+            dateCache.load();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, null, ex);
+        }
+
+        return dateCache;
+    }
+
+    private static long getKey(FileRecord fileRecord, DateSource dateSource) {
+        return fileRecord.getIdentityHash() * 31 + dateSource.name().hashCode();
+    }
+
+    private DateCache(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Returns the cached date of a file, or null if it is not cached.
+     */
+    public synchronized Date get(FileRecord fileRecord, DateSource dateSource) {
+        int index = Arrays.binarySearch(mKeys, getKey(fileRecord, dateSource));
+        if (index < 0) {
+            return null;
+        }
+
+        mUsed[index] = mGeneration;
+
+        return new Date(mDates[index]);
+    }
+
+    public synchronized void put(FileRecord fileRecord, DateSource dateSource, Date date) {
+        if (mAddedCount == mAddedKeys.length) {
+            mAddedKeys = Arrays.copyOf(mAddedKeys, mAddedCount * 2);
+            mAddedDates = Arrays.copyOf(mAddedDates, mAddedCount * 2);
+        }
+
+        mAddedKeys[mAddedCount] = getKey(fileRecord, dateSource);
+        mAddedDates[mAddedCount] = date.getTime();
+        mAddedCount++;
+    }
+
+    /**
+     * Writes the entries used during the last {@link #MAX_AGE} runs, and the
+     * ones added, to the cache file.
+     */
+    public synchronized void save() throws IOException {
+        Integer[] added = new Integer[mAddedCount];
+        for (int i = 0; i < mAddedCount; i++) {
+            added[i] = i;
+        }
+
+        Arrays.sort(added, (a, b) -> Long.compare(mAddedKeys[a], mAddedKeys[b]));
+
+        int capacity = mKeys.length + mAddedCount;
+        long[] keys = new long[capacity];
+        long[] dates = new long[capacity];
+        int[] used = new int[capacity];
+        int count = 0;
+
+        for (int i = 0, j = 0; i < mKeys.length || j < added.length;) {
+            boolean takeAdded = i == mKeys.length || (j < added.length && mAddedKeys[added[j]] <= mKeys[i]);
+            long key;
+
+            if (takeAdded) {
+                key = mAddedKeys[added[j]];
+                if (i < mKeys.length && mKeys[i] == key) {
+                    i++;
+                }
+                dates[count] = mAddedDates[added[j++]];
+                used[count] = mGeneration;
+            } else if (mGeneration - mUsed[i] <= MAX_AGE) {
+                key = mKeys[i];
+                dates[count] = mDates[i];
+                used[count] = mUsed[i++];
+            } else {
+                i++;
+                continue;
+            }
+
+            if (count == 0 || keys[count - 1] != key) {
+                keys[count++] = key;
+            }
+        }
+
+        FileUtils.forceMkdir(mFile.getParentFile());
+        File tempFile = new File(mFile.getParentFile(), mFile.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mGeneration);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeLong(keys[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeLong(dates[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeInt(used[i]);
+            }
+        }
+
+        Files.move(tempFile.toPath(), mFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        mKeys = Arrays.copyOf(keys, count);
+        mDates = Arrays.copyOf(dates, count);
+        mUsed = Arrays.copyOf(used, count);
+        mAddedCount = 0;
+    }
+
+    public int size() {
+        return mKeys.length;
+    }
+
+    private void load() throws IOException {
+        if (!mFile.isFile()) {
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(mFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                return;
+            }
+
+            // read, not mapped, as a mapped file can not be replaced on Windows until it is unmapped
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    return;
+                }
+            }
+            buffer.flip();
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return;
+            }
+
+            int generation = buffer.getInt();
+            int count = buffer.getInt();
+            if (count < 0 || buffer.remaining() != count * (2L * Long.BYTES + Integer.BYTES)) {
+                return;
+            }
+
+            long[] keys = new long[count];
+            long[] dates = new long[count];
+            int[] used = new int[count];
+            buffer.asLongBuffer().get(keys);
+            buffer.position(buffer.position() + count * Long.BYTES);
+            buffer.asLongBuffer().get(dates);
+            buffer.position(buffer.position() + count * Long.BYTES);
+            buffer.asIntBuffer().get(used);
+
+            mGeneration = generation + 1;
+            mKeys = keys;
+            mDates = dates;
+            mUsed = used;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.SignStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalField;
+import java.time.temporal.WeekFields;
+import java.time.zone.ZoneRules;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Formats dates into destination directory names with a
+ * {@link java.text.SimpleDateFormat} pattern, safe to share between threads.
+ * <p>
+ * The pattern is translated to a {@link DateTimeFormatter} in the default time
+ * zone. As every date within the same second, minute, hour or day, depending
+ * on the finest field of the pattern, gives the same name, the names are
+ * remembered per such period of local time.
+ *
+ * @author Patrik Karlström
+ */
+public class DateFolderFormat {
+
+    private static final int MAX_CACHED = 64 * 1024;
+    private static final String NUMERIC_LETTERS = "dDFHhKkmsSuwW";
+    private static final String TEXT_LETTERS = "aEGLMyYzZX";
+    private static final String ZONE_LETTERS = "zZX";
+
+    private final long mBucketSeconds;
+    private final ConcurrentHashMap<Long, String> mCache = new ConcurrentHashMap<>();
+    private final DateTimeFormatter mFormatter;
+    private final String mPattern;
+    private final ZoneRules mZoneRules;
+
+    /**
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    public static DateFolderFormat compile(String pattern, Locale locale) {
+        if (pattern == null) {
+            throw new IllegalArgumentException("pattern");
+        }
+
+        DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder();
+        long bucketSeconds = 24 * 60 * 60;
+
+        for (int i = 0; i < pattern.length();) {
+            char c = pattern.charAt(i);
+
+            if (c == '\'') {
+                int end = i + 1;
+                StringBuilder literal = new StringBuilder();
+                while (end < pattern.length()) {
+                    if (pattern.charAt(end) == '\'') {
+                        if (end + 1 < pattern.length() && pattern.charAt(end + 1) == '\'') {
+                            literal.append('\'');
+                            end += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    literal.append(pattern.charAt(end++));
+                }
+
+                if (end == pattern.length()) {
+                    throw new IllegalArgumentException("Unterminated quote: " + pattern);
+                }
+
+                builder.appendLiteral(end == i + 1 ? "'" : literal.toString());
+                i = end + 1;
+                continue;
+            } else if (!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z')) {
+                builder.appendLiteral(c);
+                i++;
+                continue;
+            }
+
+            int count = 0;
+            while (i + count < pattern.length() && pattern.charAt(i + count) == c) {
+                count++;
+            }
+
+            if (c == 'M' && count < 3) {
+                builder.appendValue(ChronoField.MONTH_OF_YEAR, count, 19, SignStyle.NORMAL);
+            } else if (NUMERIC_LETTERS.indexOf(c) >= 0) {
+                builder.appendValue(getField(c, locale), count, 19, SignStyle.NORMAL);
+            } else if (TEXT_LETTERS.indexOf(c) >= 0) {
+                builder.appendPattern(getTextPattern(c, count));
+            } else {
+                throw new IllegalArgumentException("Illegal pattern character '" + c + "'");
+            }
+
+            bucketSeconds = Math.min(bucketSeconds, getBucketSeconds(c));
+            i += count;
+        }
+
+        return new DateFolderFormat(pattern, builder.toFormatter(locale).withZone(ZoneId.systemDefault()), bucketSeconds);
+    }
+
+    private static long getBucketSeconds(char letter) {
+        if (letter == 'S' || ZONE_LETTERS.indexOf(letter) >= 0) {
+            return 0;
+        } else if (letter == 's') {
+            return 1;
+        } else if (letter == 'm') {
+            return 60;
+        } else if ("aHhKk".indexOf(letter) >= 0) {
+            return 60 * 60;
+        }
+
+        return 24 * 60 * 60;
+    }
+
+    private static TemporalField getField(char letter, Locale locale) {
+        switch (letter) {
+            case 'd':
+                return ChronoField.DAY_OF_MONTH;
+            case 'D':
+                return ChronoField.DAY_OF_YEAR;
+            case 'F':
+                return ChronoField.ALIGNED_WEEK_OF_MONTH;
+            case 'H':
+                return ChronoField.HOUR_OF_DAY;
+            case 'h':
+                return ChronoField.CLOCK_HOUR_OF_AMPM;
+            case 'K':
+                return ChronoField.HOUR_OF_AMPM;
+            case 'k':
+                return ChronoField.CLOCK_HOUR_OF_DAY;
+            case 'm':
+                return ChronoField.MINUTE_OF_HOUR;
+            case 's':
+                return ChronoField.SECOND_OF_MINUTE;
+            case 'S':
+                return ChronoField.MILLI_OF_SECOND;
+            case 'w':
+                return WeekFields.of(locale).weekOfWeekBasedYear();
+            case 'W':
+                return WeekFields.of(locale).weekOfMonth();
+            default:
+                return ChronoField.DAY_OF_WEEK;
+        }
+    }
+
+    /**
+     * Returns the {@link DateTimeFormatter} letters for a text or locale
+     * dependent field, limiting the count to what it accepts.
+     */
+    private static String getTextPattern(char letter, int count) {
+        switch (letter) {
+            case 'a':
+                count = 1;
+                break;
+            case 'E':
+            case 'G':
+            case 'L':
+            case 'M':
+            case 'z':
+                count = Math.min(count, 4);
+                break;
+            case 'y':
+            case 'Y':
+                count = Math.min(count, 19);
+                break;
+            case 'Z':
+                count = 1;
+                break;
+            default:
+                count = Math.min(count, 3);
+                break;
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(letter);
+        }
+
+        return builder.toString();
+    }
+
+    private DateFolderFormat(String pattern, DateTimeFormatter formatter, long bucketSeconds) {
+        mPattern = pattern;
+        mFormatter = formatter;
+        mBucketSeconds = bucketSeconds;
+        mZoneRules = formatter.getZone().getRules();
+    }
+
+    public String format(Date date) {
+        long epochMilli = date.getTime();
+        if (mBucketSeconds == 0) {
+            return mFormatter.format(Instant.ofEpochMilli(epochMilli));
+        }
+
+        long epochSecond = Math.floorDiv(epochMilli, 1000L);
+        int offsetSeconds = mZoneRules.isFixedOffset()
+                ? mZoneRules.getOffset(Instant.EPOCH).getTotalSeconds()
+                : mZoneRules.getOffset(Instant.ofEpochSecond(epochSecond)).getTotalSeconds();
+        Long bucket = Math.floorDiv(epochSecond + offsetSeconds, mBucketSeconds);
+
+        String name = mCache.get(bucket);
+        if (name == null) {
+            name = mFormatter.format(Instant.ofEpochMilli(epochMilli));
+            if (mCache.size() < MAX_CACHED) {
+                mCache.put(bucket, name);
+            }
+        }
+
+        return name;
+    }
+
+    public String getPattern() {
+        return mPattern;
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves the dates of files on a pool of threads while handing the results
+ * back in the order the files were submitted.
+ * <p>
+ * At most a window of a few files per thread is in flight, the caller takes
+ * the oldest result before submitting more. Date sources that do not read the
+ * content of the files are resolved directly in the calling thread.
+ * <p>
+ * With a metadata time limit, a file that takes longer than that from when a
+ * thread started on it is abandoned and gets its date from the date sources
+ * that do without the content instead. Its thread is left to finish on its own
+ * and is replaced so that the pool keeps its size, but by no more extra
+ * threads than the pool has to begin with. An extra thread goes away when the
+ * abandoned read returns.
+ *
+ * @author Patrik Karlström
+ */
+public class DateResolver implements AutoCloseable {
+
+    private static final int WINDOW_PER_THREAD = 4;
+
+    private int mAbandonedCount;
+    private final ThreadPoolExecutor mExecutor;
+    private final Operation mOperation;
+    private final ArrayDeque<Task> mPending = new ArrayDeque<>();
+    private final int mThreads;
+    private final long mTimeoutNanos;
+    private final int mWindowSize;
+
+    /**
+     * @param threads the number of threads to read metadata with
+     */
+    public DateResolver(Operation operation, Profile profile, int threads) {
+        mOperation = operation;
+        mThreads = threads;
+        boolean readingContent = profile.isReadingContent();
+        mTimeoutNanos = readingContent ? TimeUnit.MILLISECONDS.toNanos(profile.getMetadataTimeout()) : 0;
+
+        if (readingContent && (threads > 1 || mTimeoutNanos > 0)) {
+            AtomicInteger threadCount = new AtomicInteger();
+            mExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), (runnable) -> {
+                Thread thread = new Thread(runnable, "Operation.Metadata-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+
+                return thread;
+            });
+            mWindowSize = threads * WINDOW_PER_THREAD;
+        } else {
+            mExecutor = null;
+            mWindowSize = 1;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+        }
+
+        mPending.clear();
+    }
+
+    public boolean isEmpty() {
+        return mPending.isEmpty();
+    }
+
+    /**
+     * Returns whether the window is full and the oldest result has to be taken
+     * before more files are submitted.
+     */
+    public boolean isFull() {
+        return mPending.size() >= mWindowSize;
+    }
+
+    public void submit(FileRecord fileRecord) {
+        Task task = new Task(fileRecord);
+        mPending.add(task);
+
+        if (mExecutor == null) {
+            task.run();
+        } else {
+            mExecutor.execute(task);
+        }
+    }
+
+    /**
+     * Waits for, and removes, the result of the oldest file submitted.
+     */
+    public Result take() throws InterruptedException {
+        Task task = mPending.remove();
+
+        try {
+            while (mTimeoutNanos > 0) {
+                long waitNanos = task.mStarted ? task.mStartNanos + mTimeoutNanos - System.nanoTime() : mTimeoutNanos;
+
+                try {
+                    return task.get(Math.max(0, waitNanos), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException ex) {
+                    if (task.mStarted && System.nanoTime() - task.mStartNanos >= mTimeoutNanos && task.cancel(true)) {
+                        return abandon(task);
+                    }
+                }
+            }
+
+            return task.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+
+            return Result.failed(task.mFileRecord, ex.getCause());
+        } catch (CancellationException ex) {
+            return Result.failed(task.mFileRecord, ex);
+        }
+    }
+
+    private Result abandon(Task task) {
+        boolean running;
+        synchronized (task) {
+            running = !task.mReturned;
+            task.mAbandoned = running;
+        }
+
+        if (running) {
+            resizePool(1);
+        }
+
+        return mOperation.getTimedOutResult(task.mFileRecord, TimeUnit.NANOSECONDS.toMillis(mTimeoutNanos));
+    }
+
+    /**
+     * Adds an extra thread for each abandoned read that is still running, up
+     * to as many as the pool has to begin with.
+     */
+    private synchronized void resizePool(int abandonedDelta) {
+        mAbandonedCount += abandonedDelta;
+        int poolSize = mThreads + Math.min(mAbandonedCount, mThreads);
+
+        if (poolSize > mExecutor.getMaximumPoolSize()) {
+            mExecutor.setMaximumPoolSize(poolSize);
+            mExecutor.setCorePoolSize(poolSize);
+        } else {
+            mExecutor.setCorePoolSize(poolSize);
+            mExecutor.setMaximumPoolSize(poolSize);
+        }
+    }
+
+    /**
+     * The date of a file, or the outcome that tells why it got none.
+     * <p>
+     * A failed result holds no text, its message is only formatted if it is
+     * logged.
+     */
+    public static class Result {
+
+        private final Date mDate;
+        private final DateSource mDateSource;
+        private final String mDetail;
+        private final FileRecord mFileRecord;
+        private final Outcome mOutcome;
+
+        static Result dated(FileRecord fileRecord, Date date) {
+            return new Result(fileRecord, date, null, null, null);
+        }
+
+        /**
+         * @param dateSource the date source that failed, if any
+         * @param detail the message of an {@link Outcome#IO_ERROR}
+         */
+        static Result failed(FileRecord fileRecord, Outcome outcome, DateSource dateSource, String detail) {
+            return new Result(fileRecord, null, outcome, dateSource, detail);
+        }
+
+        /**
+         * Returns the result of a file whose date could not be read because of
+         * an unexpected failure, so that it fails on its own.
+         */
+        static Result failed(FileRecord fileRecord, Throwable cause) {
+            String detail = String.format("%s: %s", fileRecord.getFile().getAbsolutePath(), cause);
+
+            return new Result(fileRecord, null, Outcome.IO_ERROR, null, detail);
+        }
+
+        private Result(FileRecord fileRecord, Date date, Outcome outcome, DateSource dateSource, String detail) {
+            mFileRecord = fileRecord;
+            mDate = date;
+            mOutcome = outcome;
+            mDateSource = dateSource;
+            mDetail = detail;
+        }
+
+        /**
+         * Returns the date, or null if there is none.
+         */
+        public Date getDate() {
+            return mDate;
+        }
+
+        /**
+         * Returns the date source that failed, or null.
+         */
+        public DateSource getDateSource() {
+            return mDateSource;
+        }
+
+        public String getDetail() {
+            return mDetail;
+        }
+
+        public FileRecord getFileRecord() {
+            return mFileRecord;
+        }
+
+        /**
+         * Returns why there is no date, or null if there is one.
+         */
+        public Outcome getOutcome() {
+            return mOutcome;
+        }
+
+        public boolean isDated() {
+            return mDate != null;
+        }
+
+        /**
+         * Returns the same date or outcome for another file.
+         */
+        Result forFileRecord(FileRecord fileRecord) {
+            return fileRecord == mFileRecord ? this : new Result(fileRecord, mDate, mOutcome, mDateSource, mDetail);
+        }
+    }
+
+    /**
+     * Resolves a file and remembers when a thread started on it, and whether
+     * it was abandoned before it returned.
+     */
+    private class Task extends FutureTask<Result> {
+
+        private boolean mAbandoned;
+        private final FileRecord mFileRecord;
+        private boolean mReturned;
+        private volatile boolean mStarted;
+        private volatile long mStartNanos;
+
+        Task(FileRecord fileRecord) {
+            super(() -> mOperation.getDateResult(fileRecord));
+            mFileRecord = fileRecord;
+        }
+
+        @Override
+        public void run() {
+            mStartNanos = System.nanoTime();
+            mStarted = true;
+            super.run();
+
+            boolean abandoned;
+            synchronized (this) {
+                mReturned = true;
+                abandoned = mAbandoned;
+            }
+
+            if (abandoned) {
+                resizePool(-1);
+            }
+        }
+    }
+}
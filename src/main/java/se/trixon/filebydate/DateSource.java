@@ -27,12 +27,20 @@ public enum DateSource {
 
     EXIF_ORIGINAL,
     FILE_CREATED,
-    FILE_MODIFIED;
+    FILE_MODIFIED,
+    FILE_NAME;
     private final ResourceBundle mBundleUI = SystemHelper.getBundle(MainApp.class, "Bundle");
 
     private DateSource() {
     }
 
+    /**
+     * Returns whether the date is read from the content of the file.
+     */
+    public boolean isReadingContent() {
+        return this == EXIF_ORIGINAL;
+    }
+
     @Override
     public String toString() {
         return mBundleUI.getString("dateSource_" + name().toLowerCase());
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * An ordered table of rules that pick the date sources of a file by its
+ * extension or format.
+ * <p>
+ * Rules are separated by {@code ;} and written as selectors, separated by
+ * {@code ,}, followed by {@code =} and the date sources to try in order, for
+ * example {@code jpg,cr2,@iso_media=exif_original,file_modified;*=file_modified}.
+ * A selector is an extension, a {@link FileFormat} prefixed with {@code @}, or
+ * {@code *} for any file. The first rule that matches a file is used, formats
+ * are only sniffed when an earlier rule did not match by extension.
+ *
+ * @author Patrik Karlström
+ */
+public class DateSourceRules {
+
+    private final List<Rule> mRules;
+
+    /**
+     * @throws IllegalArgumentException if a rule is invalid
+     */
+    public static DateSourceRules parse(String rules) {
+        ArrayList<Rule> parsedRules = new ArrayList<>();
+
+        for (String rule : rules.split(";")) {
+            if (rule.trim().isEmpty()) {
+                continue;
+            }
+
+            String[] parts = rule.split("=", -1);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException(rule.trim());
+            }
+
+            Rule parsedRule = new Rule();
+            for (String selector : parts[0].split(",")) {
+                selector = selector.trim().toLowerCase();
+                if (selector.equals("*")) {
+                    parsedRule.mAny = true;
+                } else if (selector.startsWith("@")) {
+                    parsedRule.mFileFormats.add(FileFormat.valueOf(selector.substring(1).toUpperCase()));
+                } else if (selector.startsWith(".") && selector.length() > 1) {
+                    parsedRule.mExtensions.add(selector.substring(1));
+                } else if (!selector.isEmpty()) {
+                    parsedRule.mExtensions.add(selector);
+                }
+            }
+
+            for (String dateSource : parts[1].split(",")) {
+                if (!dateSource.trim().isEmpty()) {
+                    parsedRule.mDateSources.add(DateSource.valueOf(dateSource.trim().toUpperCase()));
+                }
+            }
+
+            if (parsedRule.mDateSources.isEmpty() || (!parsedRule.mAny && parsedRule.mExtensions.isEmpty() && parsedRule.mFileFormats.isEmpty())) {
+                throw new IllegalArgumentException(rule.trim());
+            }
+
+            parsedRules.add(parsedRule);
+        }
+
+        return new DateSourceRules(parsedRules);
+    }
+
+    private DateSourceRules(List<Rule> rules) {
+        mRules = rules;
+    }
+
+    /**
+     * Returns the date sources of the first rule that matches a file, or null
+     * if none does.
+     *
+     * @param fileFormat the format of the file, or null if it was not sniffed,
+     * rules that only match by format are skipped then
+     */
+    public List<DateSource> getDateSources(File file, FileFormat fileFormat) {
+        String extension = FilenameUtils.getExtension(file.getName()).toLowerCase();
+
+        for (Rule rule : mRules) {
+            if (rule.mAny || rule.mExtensions.contains(extension) || (fileFormat != null && rule.mFileFormats.contains(fileFormat))) {
+                return rule.mDateSources;
+            }
+        }
+
+        return null;
+    }
+
+    public boolean isEmpty() {
+        return mRules.isEmpty();
+    }
+
+    /**
+     * Returns whether any rule reads the content of files.
+     */
+    public boolean isReadingContent() {
+        for (Rule rule : mRules) {
+            for (DateSource dateSource : rule.mDateSources) {
+                if (dateSource.isReadingContent()) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns whether the format of a file is needed to find its rule, that is
+     * whether a rule that matches by format comes before the first rule that
+     * matches the file by extension.
+     */
+    public boolean isSniffing(File file) {
+        String extension = FilenameUtils.getExtension(file.getName()).toLowerCase();
+
+        for (Rule rule : mRules) {
+            if (rule.mAny || rule.mExtensions.contains(extension)) {
+                return false;
+            } else if (!rule.mFileFormats.isEmpty()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static class Rule {
+
+        private boolean mAny;
+        private final List<DateSource> mDateSources = new ArrayList<>();
+        private final Set<String> mExtensions = new HashSet<>();
+        private final Set<FileFormat> mFileFormats = EnumSet.noneOf(FileFormat.class);
+    }
+}
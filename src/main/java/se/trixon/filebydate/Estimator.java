@@ -0,0 +1,353 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.ResourceBundle;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import se.trixon.almond.util.SystemHelper;
+
+/**
+ * Estimates the outcome of an operation from a sample of the source.
+ * <p>
+ * The tree is explored with random descents from a random source directory
+ * (Knuth's estimator), each directory on the way is weighted by the product of
+ * the branching factors above it, the number of source directories included.
+ * Only the directories on the descents are listed. Of a large directory only a
+ * sample of the entries is read, and the counts and the branching factor are
+ * scaled up from it, so a sub directory that is rare among a great many files
+ * may be missed. The date source is only evaluated for a fraction of the
+ * files read, so the cost is a small part of a dry run even for a directory of
+ * a great many files.
+ *
+ * @author Patrik Karlström
+ */
+public class Estimator {
+
+    private static final long MAX_READ_BYTES = 32L * 1024 * 1024;
+    /**
+     * The entries of a directory that are always read, of a larger directory
+     * only a sample of them is read.
+     */
+    private static final int MIN_READ_ENTRIES = 1024;
+    private static final int PROBES = 256;
+    private static final int READ_CHUNK = 4 * 1024 * 1024;
+
+    private final TreeMap<String, Double> mBuckets = new TreeMap<>();
+    private final ResourceBundle mBundle = SystemHelper.getBundle(Estimator.class, "Bundle");
+    private final CancellationToken mCancellationToken;
+    private int mDateCount;
+    private long mDateNanos;
+    private long mListNanos;
+    private long mListedEntries;
+    private final Map<Path, Node> mNodes = new HashMap<>();
+    private final Operation mOperation;
+    private final Profile mProfile;
+    private final Random mRandom = new Random();
+    private long mReadEntries;
+    private long mReadNanos;
+    private final double mSampleFraction;
+    private final ArrayList<FileRecord> mSampledFiles = new ArrayList<>();
+
+    public Estimator(Operation operation, Profile profile, double sampleFraction, CancellationToken cancellationToken) {
+        mOperation = operation;
+        mProfile = profile;
+        mSampleFraction = sampleFraction;
+        mCancellationToken = cancellationToken;
+    }
+
+    /**
+     * Samples the source and logs the estimate.
+     *
+     * @return the estimated number of files, or -1 if cancelled
+     */
+    public int estimate() {
+        OperationListener listener = mOperation.getListener();
+        double dirs = 0;
+        double entries = 0;
+        double bytes = 0;
+        double files = 0;
+        double filesSquared = 0;
+        List<File> sourceDirs = mProfile.getSourceDirs();
+
+        for (int i = 0; i < PROBES; i++) {
+            double probeFiles = 0;
+            HashSet<Object> fileKeys = new HashSet<>();
+            Path dir = sourceDirs.get(mRandom.nextInt(sourceDirs.size())).toPath();
+            double weight = sourceDirs.size();
+
+            for (int depth = 0; dir != null; depth++) {
+                if (mCancellationToken.isCancelled()) {
+                    return -1;
+                }
+
+                Node node = getNode(dir, depth);
+                if (node.mFileKey != null && !fileKeys.add(node.mFileKey)) {
+                    break;
+                }
+
+                dirs += weight;
+                entries += weight * node.mEntries;
+                bytes += weight * node.mBytes;
+                probeFiles += weight * node.mFiles;
+                for (Map.Entry<String, Double> entry : node.mBuckets.entrySet()) {
+                    mBuckets.merge(entry.getKey(), weight * entry.getValue() / PROBES, Double::sum);
+                }
+
+                if (node.mSubDirs.isEmpty()) {
+                    dir = null;
+                } else {
+                    weight *= node.mSubDirCount;
+                    dir = node.mSubDirs.get(mRandom.nextInt(node.mSubDirs.size()));
+                }
+            }
+
+            files += probeFiles;
+            filesSquared += probeFiles * probeFiles;
+        }
+
+        double meanFiles = files / PROBES;
+        double standardError = Math.sqrt(Math.max(0, filesSquared / PROBES - meanFiles * meanFiles) / PROBES);
+
+        listener.onOperationLog("");
+        listener.onOperationLog(String.format(mBundle.getString("estimate_dirs"), Math.round(dirs / PROBES), mNodes.size()));
+        listener.onOperationLog(String.format(mBundle.getString("estimate_files"), Math.round(meanFiles), Math.round(standardError)));
+        listener.onOperationLog(String.format(mBundle.getString("estimate_bytes"), FileUtils.byteCountToDisplaySize(Math.round(bytes / PROBES))));
+
+        listener.onOperationLog("");
+        mBuckets.forEach((bucket, count) -> {
+            listener.onOperationLog(String.format("%s: %d", bucket, Math.round(count)));
+        });
+
+        double entryNanos = (mListedEntries == 0 ? 0 : (double) mListNanos / mListedEntries) + (mReadEntries == 0 ? 0 : (double) mReadNanos / mReadEntries);
+        long listMillis = TimeUnit.NANOSECONDS.toMillis(Math.round(entryNanos * entries / PROBES));
+        long dateMillis = mDateCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(Math.round(mDateNanos * meanFiles / mDateCount));
+        long transferMillis = isTransferRequired() ? estimateTransferMillis(bytes / PROBES) : 0;
+
+        listener.onOperationLog("");
+        listener.onOperationLog(String.format(mBundle.getString("estimate_time"),
+                formatMillis(listMillis + dateMillis + transferMillis),
+                formatMillis(listMillis),
+                formatMillis(dateMillis),
+                formatMillis(transferMillis)
+        ));
+
+        return (int) Math.min(Integer.MAX_VALUE, Math.round(meanFiles));
+    }
+
+    /**
+     * Reads from the sampled files to measure the throughput of the source.
+     */
+    private long estimateTransferMillis(double bytes) {
+        byte[] buffer = new byte[64 * 1024];
+        long readBytes = 0;
+        long startNanos = System.nanoTime();
+
+        for (FileRecord fileRecord : mSampledFiles) {
+            if (readBytes >= MAX_READ_BYTES || mCancellationToken.isCancelled()) {
+                break;
+            }
+
+            try (InputStream in = Files.newInputStream(fileRecord.getFile().toPath())) {
+                int fileBytes = 0;
+                int read;
+                while (fileBytes < READ_CHUNK && (read = in.read(buffer)) > 0) {
+                    fileBytes += read;
+                }
+                readBytes += fileBytes;
+            } catch (IOException ex) {
+                // the file is just left out of the measurement
+            }
+        }
+
+        long nanos = System.nanoTime() - startNanos;
+        if (readBytes == 0 || nanos == 0) {
+            return 0;
+        }
+
+        return TimeUnit.NANOSECONDS.toMillis(Math.round(bytes * nanos / readBytes));
+    }
+
+    private String formatMillis(long millis) {
+        long hours = TimeUnit.MILLISECONDS.toHours(millis);
+        long min = TimeUnit.MILLISECONDS.toMinutes(millis) % 60;
+        long sec = TimeUnit.MILLISECONDS.toSeconds(millis) % 60;
+
+        return String.format("%d:%02d:%02d", hours, min, sec);
+    }
+
+    private Node getNode(Path dir, int depth) {
+        Node node = mNodes.get(dir);
+        if (node != null) {
+            return node;
+        }
+
+        node = new Node();
+        mNodes.put(dir, node);
+        boolean recurse = depth + 1 < mProfile.getScanDepth();
+        FileNameMatcher fileNameMatcher = mProfile.getFileNameMatcher();
+        FileNameMatcher dirNameMatcher = mProfile.getDirNameMatcher();
+
+        try {
+            node.mFileKey = Files.readAttributes(dir, BasicFileAttributes.class).fileKey();
+        } catch (IOException ex) {
+            return node;
+        }
+
+        long startNanos = System.nanoTime();
+        String[] names = dir.toFile().list();
+        mListNanos += System.nanoTime() - startNanos;
+        if (names == null) {
+            return node;
+        }
+
+        mListedEntries += names.length;
+        node.mEntries = names.length;
+
+        int candidates = 0;
+        for (String name : names) {
+            if (fileNameMatcher.matches(name) || (recurse && dirNameMatcher.matches(name))) {
+                names[candidates++] = name;
+            }
+        }
+
+        int readCount = Math.min(candidates, Math.max(MIN_READ_ENTRIES, (int) Math.ceil(candidates * mSampleFraction)));
+        double weight = readCount == 0 ? 0 : (double) candidates / readCount;
+        ArrayList<FileRecord> fileRecords = new ArrayList<>();
+
+        startNanos = System.nanoTime();
+        for (int i = 0; i < readCount; i++) {
+            int j = i + mRandom.nextInt(candidates - i);
+            String name = names[j];
+            names[j] = names[i];
+            names[i] = name;
+
+            Path entry = dir.resolve(name);
+            BasicFileAttributes attrs;
+            boolean link;
+            try {
+                attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                link = attrs.isSymbolicLink();
+                if (link) {
+                    attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                }
+            } catch (IOException ex) {
+                continue;
+            }
+
+            if (attrs.isRegularFile()) {
+                if (fileNameMatcher.matches(name)) {
+                    node.mBytes += weight * attrs.size();
+                    fileRecords.add(new FileRecord(entry.toFile(), attrs));
+                }
+            } else if (recurse && attrs.isDirectory() && (mProfile.isFollowLinks() || !link) && dirNameMatcher.matches(name)) {
+                node.mSubDirs.add(entry);
+            }
+        }
+
+        mReadNanos += System.nanoTime() - startNanos;
+        mReadEntries += readCount;
+        node.mFiles = weight * fileRecords.size();
+        node.mSubDirCount = weight * node.mSubDirs.size();
+        sampleDates(node, fileRecords, weight);
+
+        return node;
+    }
+
+    private boolean isTransferRequired() {
+        if (mProfile.getCommand() == Operation.Command.COPY) {
+            return true;
+        }
+
+        try {
+            FileStore destFileStore = Files.getFileStore(mProfile.getDestDir().toPath());
+            for (File sourceDir : mProfile.getSourceDirs()) {
+                if (!Files.getFileStore(sourceDir.toPath()).equals(destFileStore)) {
+                    return true;
+                }
+            }
+        } catch (IOException ex) {
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @param readWeight the number of files that each read file stands for
+     */
+    private void sampleDates(Node node, List<FileRecord> fileRecords, double readWeight) {
+        ArrayList<FileRecord> sample = new ArrayList<>();
+        for (FileRecord fileRecord : fileRecords) {
+            if (mRandom.nextDouble() < mSampleFraction) {
+                sample.add(fileRecord);
+            }
+        }
+
+        if (sample.isEmpty() && !fileRecords.isEmpty()) {
+            sample.add(fileRecords.get(mRandom.nextInt(fileRecords.size())));
+        }
+
+        DateFolderFormat dateFormat = mProfile.getDateFormat();
+        double weight = readWeight * fileRecords.size() / Math.max(1, sample.size());
+
+        for (FileRecord fileRecord : sample) {
+            String bucket;
+            long startNanos = System.nanoTime();
+            DateResolver.Result result = mOperation.getDateResult(fileRecord);
+            if (result.isDated()) {
+                bucket = dateFormat.format(result.getDate());
+            } else {
+                bucket = mBundle.getString("estimate_no_date");
+            }
+
+            mDateNanos += System.nanoTime() - startNanos;
+            mDateCount++;
+            node.mBuckets.merge(bucket, weight, Double::sum);
+        }
+
+        mSampledFiles.addAll(sample);
+    }
+
+    private static class Node {
+
+        private final HashMap<String, Double> mBuckets = new HashMap<>();
+        private double mBytes;
+        private int mEntries;
+        private Object mFileKey;
+        private double mFiles;
+        private double mSubDirCount;
+        /**
+         * The sub directories among the entries that were read.
+         */
+        private final ArrayList<Path> mSubDirs = new ArrayList<>();
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+/**
+ * Reads the EXIF DateTimeOriginal of JPEG, TIFF based raw and PNG files
+ * without building the complete metadata.
+ * <p>
+ * Only the header of the file is read, the IFD chain is followed straight to
+ * the Exif IFD and the tag. Anything unexpected makes it give up and return
+ * null so that the caller can fall back to a full metadata reader. Just like
+ * metadata-extractor, the date is taken to be in GMT.
+ *
+ * @author Patrik Karlström
+ */
+public class ExifDateReader {
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("uuuu:MM:dd HH:mm:ss");
+    private static final int HEAD_BYTES = 16 * 1024;
+    private static final int MAX_BYTES = 64 * 1024;
+    private static final int MAX_ENTRIES = 512;
+    private static final int MAX_SEGMENTS = 64;
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int TAG_DATETIME_ORIGINAL = 0x9003;
+    private static final int TAG_EXIF_IFD = 0x8769;
+
+    /**
+     * Returns the DateTimeOriginal of an open file, or null if it is not
+     * found in the header or the file is of another format.
+     */
+    public static Date read(FileChannel channel) throws IOException {
+        Reader reader = new Reader(channel, 0);
+        ByteBuffer magic = reader.read(0, 8);
+        if (magic == null) {
+            return null;
+        }
+
+        int b0 = magic.get(0) & 0xff;
+        int b1 = magic.get(1) & 0xff;
+
+        if (b0 == 0xff && b1 == 0xd8) {
+            return readJpeg(reader);
+        } else if ((b0 == 'I' && b1 == 'I') || (b0 == 'M' && b1 == 'M')) {
+            return readTiff(reader, 0, false);
+        } else if (magic.equals(ByteBuffer.wrap(PNG_SIGNATURE))) {
+            return readPng(reader);
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the 12 byte entry of a tag in an IFD, or null if the IFD does not
+     * have the tag.
+     */
+    private static ByteBuffer findEntry(Reader reader, ByteOrder byteOrder, long tiffOffset, long ifdOffset, int tag) throws IOException {
+        ByteBuffer countBuffer = reader.read(tiffOffset + ifdOffset, 2);
+        if (countBuffer == null) {
+            return null;
+        }
+
+        int entryCount = countBuffer.order(byteOrder).getShort(0) & 0xffff;
+        if (entryCount > MAX_ENTRIES) {
+            return null;
+        }
+
+        ByteBuffer entries = reader.read(tiffOffset + ifdOffset + 2, entryCount * 12);
+        if (entries == null) {
+            return null;
+        }
+
+        entries.order(byteOrder);
+        for (int i = 0; i < entryCount; i++) {
+            if ((entries.getShort(i * 12) & 0xffff) == tag) {
+                entries.position(i * 12).limit(i * 12 + 12);
+
+                return entries.slice().order(byteOrder);
+            }
+        }
+
+        return null;
+    }
+
+    private static Date parseDate(ByteBuffer value) {
+        byte[] bytes = new byte[value.remaining()];
+        value.get(bytes);
+        String string = new String(bytes, StandardCharsets.US_ASCII).trim();
+        int end = string.indexOf('\0');
+        if (end >= 0) {
+            string = string.substring(0, end);
+        }
+
+        try {
+            return Date.from(LocalDateTime.parse(string, DATE_TIME_FORMATTER).toInstant(ZoneOffset.UTC));
+        } catch (DateTimeParseException ex) {
+            return null;
+        }
+    }
+
+    private static Date readJpeg(Reader reader) throws IOException {
+        long position = 2;
+
+        for (int i = 0; i < MAX_SEGMENTS; i++) {
+            ByteBuffer marker = reader.read(position, 4);
+            if (marker == null || (marker.get(0) & 0xff) != 0xff) {
+                return null;
+            }
+
+            int type = marker.get(1) & 0xff;
+            if (type == 0xff) {
+                position++;
+                continue;
+            } else if (type == 0xda || type == 0xd9) {
+                return null;
+            }
+
+            int length = marker.getShort(2) & 0xffff;
+            if (type == 0xe1 && length >= 16) {
+                ByteBuffer identifier = reader.read(position + 4, 6);
+                if (identifier != null && identifier.equals(ByteBuffer.wrap(new byte[]{'E', 'x', 'i', 'f', 0, 0}))) {
+                    return readTiff(reader, position + 10, false);
+                }
+            }
+
+            position += 2 + length;
+        }
+
+        return null;
+    }
+
+    private static Date readPng(Reader reader) throws IOException {
+        long position = PNG_SIGNATURE.length;
+
+        for (int i = 0; i < MAX_SEGMENTS; i++) {
+            ByteBuffer header = reader.read(position, 8);
+            if (header == null) {
+                return null;
+            }
+
+            long length = header.getInt(0) & 0xffffffffL;
+            String type = new String(new byte[]{header.get(4), header.get(5), header.get(6), header.get(7)}, StandardCharsets.US_ASCII);
+
+            if (type.equals("eXIf")) {
+                return readTiff(reader, position + 8, false);
+            } else if (type.equals("IDAT") || type.equals("IEND")) {
+                return null;
+            }
+
+            position += 12 + length;
+        }
+
+        return null;
+    }
+
+    /**
+     * @param exifIfd whether the first IFD is the Exif IFD, as in the
+     * metadata boxes of Canon CR3 files
+     */
+    private static Date readTiff(Reader reader, long tiffOffset, boolean exifIfd) throws IOException {
+        ByteBuffer header = reader.read(tiffOffset, 8);
+        if (header == null) {
+            return null;
+        }
+
+        ByteOrder byteOrder;
+        if (header.get(0) == 'I' && header.get(1) == 'I') {
+            byteOrder = ByteOrder.LITTLE_ENDIAN;
+        } else if (header.get(0) == 'M' && header.get(1) == 'M') {
+            byteOrder = ByteOrder.BIG_ENDIAN;
+        } else {
+            return null;
+        }
+
+        header.order(byteOrder);
+        if (header.getShort(2) != 42) {
+            return null;
+        }
+
+        long exifIfdOffset = header.getInt(4) & 0xffffffffL;
+        if (!exifIfd) {
+            ByteBuffer exifIfdEntry = findEntry(reader, byteOrder, tiffOffset, exifIfdOffset, TAG_EXIF_IFD);
+            if (exifIfdEntry == null) {
+                return null;
+            }
+
+            exifIfdOffset = exifIfdEntry.getInt(8) & 0xffffffffL;
+        }
+
+        ByteBuffer dateEntry = findEntry(reader, byteOrder, tiffOffset, exifIfdOffset, TAG_DATETIME_ORIGINAL);
+        if (dateEntry == null) {
+            return null;
+        }
+
+        int count = dateEntry.getInt(4);
+        if (count < 19 || count > 64) {
+            return null;
+        }
+
+        ByteBuffer value = reader.read(tiffOffset + (dateEntry.getInt(8) & 0xffffffffL), count);
+
+        return value == null ? null : parseDate(value);
+    }
+
+    private ExifDateReader() {
+    }
+
+    /**
+     * Returns the DateTimeOriginal of TIFF data embedded at an offset of a
+     * file, or null if it is not found.
+     */
+    static Date readTiff(FileChannel channel, long tiffOffset, boolean exifIfd) throws IOException {
+        return readTiff(new Reader(channel, tiffOffset), tiffOffset, exifIfd);
+    }
+
+    /**
+     * Reads from the head of the data, which is read once, and from elsewhere
+     * in the file as long as the total stays within the limit.
+     */
+    private static class Reader {
+
+        private int mBudget = MAX_BYTES;
+        private final FileChannel mChannel;
+        private ByteBuffer mHead;
+        private final long mHeadPosition;
+
+        public Reader(FileChannel channel, long headPosition) {
+            mChannel = channel;
+            mHeadPosition = headPosition;
+        }
+
+        /**
+         * Returns a big endian buffer with the bytes, or null if they are
+         * outside the file or the limit.
+         */
+        ByteBuffer read(long position, int length) throws IOException {
+            if (mHead == null) {
+                mHead = ByteBuffer.allocate(HEAD_BYTES);
+                while (mHead.hasRemaining()) {
+                    if (mChannel.read(mHead, mHeadPosition + mHead.position()) < 0) {
+                        break;
+                    }
+                }
+                mHead.flip();
+                mBudget -= HEAD_BYTES;
+            }
+
+            if (position < 0 || length < 0) {
+                return null;
+            } else if (position >= mHeadPosition && position - mHeadPosition + length <= mHead.limit()) {
+                int headOffset = (int) (position - mHeadPosition);
+                ByteBuffer buffer = mHead.duplicate();
+                buffer.position(headOffset).limit(headOffset + length);
+
+                return buffer.slice();
+            } else if (length > mBudget) {
+                return null;
+            }
+
+            mBudget -= length;
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (mChannel.read(buffer, position + buffer.position()) < 0) {
+                    return null;
+                }
+            }
+
+            return buffer.flip();
+        }
+    }
+}
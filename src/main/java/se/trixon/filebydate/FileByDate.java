@@ -17,9 +17,11 @@ package se.trixon.filebydate;
 
 import java.awt.GraphicsEnvironment;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ResourceBundle;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.cli.CommandLine;
@@ -113,6 +115,7 @@ public class FileByDate implements OperationListener {
                         System.exit(1);
                     } else {
                         profile.setDryRun(mCommandLine.hasOption("dry-run"));
+                        profile.setShard(mCommandLine.getOptionValue("shard"));
                     }
                 } else {
                     profile = new Profile(mCommandLine);
@@ -120,7 +123,7 @@ public class FileByDate implements OperationListener {
 
                 if (profile.isValid()) {
                     Operation operation = new Operation(this, profile);
-                    operation.start();
+                    startOperation(operation);
                 } else {
                     System.out.println(profile.getValidationError());
                     System.out.println(Dict.ABORTING.toString());
@@ -137,6 +140,11 @@ public class FileByDate implements OperationListener {
     public void onOperationFailed(String message) {
     }
 
+    @Override
+    public void onOperationFileProcessed(File file, Outcome outcome, Supplier<String> message) {
+        System.out.println(message.get());
+    }
+
     @Override
     public void onOperationFinished(String message, int fileCount) {
         System.out.println(Dict.DONE.toString());
@@ -223,6 +231,55 @@ public class FileByDate implements OperationListener {
                 .desc(sBundle.getString("opt_recursive_desc"))
                 .build();
 
+        Option incremental = Option.builder("i")
+                .longOpt("incremental")
+                .desc(sBundle.getString("opt_incremental_desc"))
+                .build();
+
+        Option parallel = Option.builder("p")
+                .longOpt("parallel")
+                .desc(sBundle.getString("opt_parallel_desc"))
+                .build();
+
+        Option stream = Option.builder("s")
+                .longOpt("stream")
+                .desc(sBundle.getString("opt_stream_desc"))
+                .build();
+
+        Option scanCache = Option.builder("sc")
+                .longOpt("scan-cache")
+                .desc(sBundle.getString("opt_scan_cache_desc"))
+                .build();
+
+        Option dateCache = Option.builder("dc")
+                .longOpt("date-cache")
+                .desc(sBundle.getString("opt_date_cache_desc"))
+                .build();
+
+        Option group = Option.builder("g")
+                .longOpt("group")
+                .desc(sBundle.getString("opt_group_desc"))
+                .build();
+
+        Option estimate = Option.builder("e")
+                .longOpt("estimate")
+                .desc(sBundle.getString("opt_estimate_desc"))
+                .hasArg()
+                .optionalArg(false)
+                .build();
+
+        Option watch = Option.builder("w")
+                .longOpt("watch")
+                .desc(sBundle.getString("opt_watch_desc"))
+                .build();
+
+        Option shard = Option.builder("sh")
+                .longOpt("shard")
+                .desc(sBundle.getString("opt_shard_desc"))
+                .hasArg()
+                .optionalArg(false)
+                .build();
+
         Option links = Option.builder("l")
                 .longOpt("links")
                 .desc(sBundle.getString("opt_links_desc"))
@@ -252,6 +309,62 @@ public class FileByDate implements OperationListener {
                 .optionalArg(false)
                 .build();
 
+        Option dateRules = Option.builder("dr")
+                .longOpt("date-rules")
+                .desc(sBundle.getString("opt_date_rules_desc"))
+                .hasArg()
+                .optionalArg(false)
+                .build();
+
+        Option nameDate = Option.builder("nd")
+                .longOpt("name-date")
+                .desc(sBundle.getString("opt_name_date_desc"))
+                .hasArg()
+                .optionalArg(false)
+                .build();
+
+        Option fallback = Option.builder("fb")
+                .longOpt("fallback")
+                .desc(sBundle.getString("opt_fallback_desc"))
+                .hasArg()
+                .optionalArg(false)
+                .build();
+
+        Option metadataTimeout = Option.builder("mt")
+                .longOpt("metadata-timeout")
+                .desc(sBundle.getString("opt_metadata_timeout_desc"))
+                .hasArg()
+                .optionalArg(false)
+                .build();
+
+        Option exclude = Option.builder("x")
+                .longOpt("exclude")
+                .desc(sBundle.getString("opt_exclude_desc"))
+                .hasArg()
+                .optionalArg(false)
+                .build();
+
+        Option excludeDirs = Option.builder("xd")
+                .longOpt("exclude-dirs")
+                .desc(sBundle.getString("opt_exclude_dirs_desc"))
+                .hasArg()
+                .optionalArg(false)
+                .build();
+
+        Option maxDepth = Option.builder("md")
+                .longOpt("max-depth")
+                .desc(sBundle.getString("opt_max_depth_desc"))
+                .hasArg()
+                .optionalArg(false)
+                .build();
+
+        Option fileOrder = Option.builder("fo")
+                .longOpt("file-order")
+                .desc(sBundle.getString("opt_file_order_desc"))
+                .hasArg()
+                .optionalArg(false)
+                .build();
+
         Option caseBase = Option.builder("cb")
                 .longOpt("case-base")
                 .desc(sBundle.getString("opt_case_base_desc"))
@@ -291,12 +404,29 @@ public class FileByDate implements OperationListener {
         sOptions.addOption(move);
 
         sOptions.addOption(dryRun);
+        sOptions.addOption(incremental);
         sOptions.addOption(links);
         sOptions.addOption(overwrite);
+        sOptions.addOption(parallel);
         sOptions.addOption(recursive);
+        sOptions.addOption(scanCache);
+        sOptions.addOption(dateCache);
+        sOptions.addOption(group);
+        sOptions.addOption(estimate);
+        sOptions.addOption(stream);
+        sOptions.addOption(watch);
+        sOptions.addOption(shard);
 
         sOptions.addOption(datePattern);
         sOptions.addOption(dateSource);
+        sOptions.addOption(dateRules);
+        sOptions.addOption(nameDate);
+        sOptions.addOption(fallback);
+        sOptions.addOption(metadataTimeout);
+        sOptions.addOption(exclude);
+        sOptions.addOption(excludeDirs);
+        sOptions.addOption(maxDepth);
+        sOptions.addOption(fileOrder);
 
         sOptions.addOption(caseBase);
         sOptions.addOption(caseExt);
@@ -325,4 +455,44 @@ public class FileByDate implements OperationListener {
             Logger.getLogger(FileByDate.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
+
+    /**
+     * Runs the operation, or estimates it or watches the source when requested,
+     * in the current thread. An interrupt (Ctrl+C) cancels it and waits for it
+     * to wind down before the JVM exits.
+     */
+    private void startOperation(Operation operation) {
+        if (mCommandLine.hasOption("estimate")) {
+            String fraction = mCommandLine.getOptionValue("estimate");
+            if (!fraction.matches("0?\\.[0-9]*[1-9][0-9]*|1(\\.0*)?")) {
+                System.err.println(String.format(sBundle.getString("invalid_sample_fraction"), fraction));
+                System.exit(1);
+            }
+        }
+
+        Thread operationThread = Thread.currentThread();
+        Thread shutdownHook = new Thread(() -> {
+            operation.cancel();
+            try {
+                operationThread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        if (mCommandLine.hasOption("estimate")) {
+            operation.estimate(Double.parseDouble(mCommandLine.getOptionValue("estimate")));
+        } else if (mCommandLine.hasOption("watch")) {
+            operation.watch();
+        } else {
+            operation.start();
+        }
+
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException ex) {
+            // the shutdown hook is already running
+        }
+    }
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The container format of a file, as told by its first bytes.
+ * <p>
+ * Only the formats that can hold an Exif DateTimeOriginal are told apart,
+ * everything else is {@link #UNKNOWN} and is not worth handing to a metadata
+ * reader.
+ *
+ * @author Patrik Karlström
+ */
+public enum FileFormat {
+
+    ISO_MEDIA,
+    JPEG,
+    PNG,
+    PSD,
+    RAF,
+    TIFF,
+    WEBP,
+    UNKNOWN;
+    private static final int MAGIC_BYTES = 32;
+
+    /**
+     * Returns the format of the first bytes of a file.
+     */
+    public static FileFormat detect(ByteBuffer magic) {
+        int length = magic.remaining();
+        if (length < 4) {
+            return UNKNOWN;
+        }
+
+        String head = new String(magic.array(), magic.arrayOffset() + magic.position(), Math.min(length, 16), StandardCharsets.ISO_8859_1);
+        int b0 = head.charAt(0);
+        int b1 = head.charAt(1);
+
+        if (b0 == 0xff && b1 == 0xd8 && head.charAt(2) == 0xff) {
+            return JPEG;
+        } else if (head.startsWith("II*\0") || head.startsWith("MM\0*") || head.startsWith("IIRO") || head.startsWith("IIRS") || head.startsWith("MMOR") || head.startsWith("IIU\0")) {
+            return TIFF;
+        } else if (head.startsWith("\u0089PNG\r\n\u001a\n")) {
+            return PNG;
+        } else if (head.startsWith("8BPS")) {
+            return PSD;
+        } else if (head.startsWith("FUJIFILMCCD-RAW")) {
+            return RAF;
+        } else if (head.startsWith("RIFF") && length >= 12 && head.startsWith("WEBP", 8)) {
+            return WEBP;
+        } else if (length >= 8 && isIsoMediaBox(head.substring(4, 8))) {
+            return ISO_MEDIA;
+        }
+
+        return UNKNOWN;
+    }
+
+    /**
+     * Returns the format of a file from a single read of its first bytes.
+     */
+    public static FileFormat sniff(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return sniff(channel);
+        }
+    }
+
+    /**
+     * Returns the format of an open file, read from its start without moving
+     * the position of the channel.
+     */
+    public static FileFormat sniff(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(MAGIC_BYTES);
+        while (magic.hasRemaining()) {
+            if (channel.read(magic, magic.position()) < 0) {
+                break;
+            }
+        }
+
+        return detect(magic.flip());
+    }
+
+    private FileFormat() {
+    }
+
+    /**
+     * Returns whether the format may hold an Exif date.
+     */
+    public boolean isMetadataSupported() {
+        return this != UNKNOWN;
+    }
+
+    /**
+     * Returns whether a box type is one that ISO base media and QuickTime
+     * files start with.
+     */
+    static boolean isIsoMediaBox(String type) {
+        switch (type) {
+            case "ftyp":
+            case "free":
+            case "mdat":
+            case "moov":
+            case "pnot":
+            case "skip":
+            case "wide":
+                return true;
+            default:
+                return false;
+        }
+    }
+}
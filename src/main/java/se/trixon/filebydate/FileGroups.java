@@ -0,0 +1,266 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Function;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Dates the photos, videos and sidecars that share a base name within a
+ * directory, such as {@code IMG_0001.CR3}, {@code IMG_0001.JPG} and
+ * {@code IMG_0001.xmp}, as one group.
+ * <p>
+ * The date of a group is resolved once, from the member whose metadata is the
+ * cheapest to read, trying the next one if it gives no date, and is then used
+ * for every member. Sidecars are never read themselves. Files of other types
+ * are not grouped.
+ * <p>
+ * The directories and groups are listed as they are first needed and only the
+ * most recent ones are remembered, the members of a group are processed close
+ * together in every file order.
+ *
+ * @author Patrik Karlström
+ */
+public class FileGroups {
+
+    private static final int MAX_DIRECTORIES = 16;
+    private static final int MAX_GROUPS = 4096;
+    /**
+     * The media extensions, cheapest to read first.
+     */
+    private static final List<String> MEDIA_EXTENSIONS = Arrays.asList(
+            "jpg", "jpeg", "heic", "heif", "cr3", "mp4", "mov", "m4v", "3gp",
+            "tif", "tiff", "dng", "cr2", "nef", "nrw", "arw", "sr2", "orf", "rw2", "pef", "srw",
+            "png", "raf", "webp", "crw", "x3f"
+    );
+    private static final List<String> SIDECAR_EXTENSIONS = Arrays.asList(
+            "aae", "dop", "pp3", "thm", "xmp"
+    );
+
+    private final LinkedHashMap<String, Map<String, List<File>>> mDirectories = new LinkedHashMap<>(MAX_DIRECTORIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<String, List<File>>> eldest) {
+            return size() > MAX_DIRECTORIES;
+        }
+    };
+    private final LinkedHashMap<String, FutureTask<DateResolver.Result>> mGroups = new LinkedHashMap<>(MAX_GROUPS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FutureTask<DateResolver.Result>> eldest) {
+            return size() > MAX_GROUPS;
+        }
+    };
+
+    /**
+     * Returns the key of the group of a file, or null if the file is not of a
+     * type that is grouped.
+     * <p>
+     * Sidecars named after the whole name of their photo, such as
+     * {@code IMG_0001.CR3.xmp}, belong to the group of the photo.
+     */
+    public static String getKey(File file) {
+        String name = file.getName();
+        String extension = FilenameUtils.getExtension(name).toLowerCase();
+        String baseName = FilenameUtils.getBaseName(name);
+
+        if (SIDECAR_EXTENSIONS.contains(extension)) {
+            if (MEDIA_EXTENSIONS.contains(FilenameUtils.getExtension(baseName).toLowerCase())) {
+                baseName = FilenameUtils.getBaseName(baseName);
+            }
+        } else if (!MEDIA_EXTENSIONS.contains(extension)) {
+            return null;
+        }
+
+        return new File(file.getParentFile(), baseName).getPath();
+    }
+
+    /**
+     * Returns the rank of a media file, lower is cheaper to read, or -1 for a
+     * sidecar.
+     */
+    private static int getRank(File file) {
+        return MEDIA_EXTENSIONS.indexOf(FilenameUtils.getExtension(file.getName()).toLowerCase());
+    }
+
+    /**
+     * Forgets the directory listings, for when files may have been added since
+     * they were read. The dates of the groups are kept.
+     */
+    public void clearDirectories() {
+        synchronized (mDirectories) {
+            mDirectories.clear();
+        }
+    }
+
+    /**
+     * Returns the date of the group of a file, resolving it with the date
+     * function if it is not known yet. Files that are not grouped, or alone in
+     * their group, are resolved on their own.
+     * <p>
+     * A group whose member was interrupted while being read, as when it was
+     * abandoned for taking too long, is resolved again by the next member.
+     */
+    public DateResolver.Result getDate(FileRecord fileRecord, Function<FileRecord, DateResolver.Result> dateFunction) {
+        String key = getKey(fileRecord.getFile());
+        if (key == null) {
+            return dateFunction.apply(fileRecord);
+        }
+
+        FutureTask<DateResolver.Result> task;
+        synchronized (mGroups) {
+            task = mGroups.get(key);
+        }
+
+        if (task == null) {
+            List<File> members = getMembers(fileRecord.getFile(), key);
+            if (members.size() < 2) {
+                return dateFunction.apply(fileRecord);
+            }
+
+            FutureTask<DateResolver.Result> newTask = new FutureTask<>(() -> resolve(fileRecord, members, dateFunction));
+            synchronized (mGroups) {
+                task = mGroups.get(key);
+                if (task == null) {
+                    task = newTask;
+                    mGroups.put(key, task);
+                }
+            }
+
+            if (task == newTask) {
+                task.run();
+                if (Thread.currentThread().isInterrupted()) {
+                    synchronized (mGroups) {
+                        mGroups.remove(key, task);
+                    }
+                }
+            }
+        }
+
+        DateResolver.Result result;
+        try {
+            result = task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+
+            return DateResolver.Result.failed(fileRecord, Outcome.IO_ERROR, null, fileRecord.getFile().getAbsolutePath());
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+
+            return DateResolver.Result.failed(fileRecord, ex.getCause());
+        }
+
+        if (!result.isDated() && !Thread.currentThread().isInterrupted()) {
+            boolean forgotten;
+            synchronized (mGroups) {
+                forgotten = mGroups.get(key) != task;
+            }
+
+            if (forgotten) {
+                return getDate(fileRecord, dateFunction);
+            }
+        }
+
+        return result.forFileRecord(fileRecord);
+    }
+
+    /**
+     * Returns the members of the group of a file, the file included, cheapest
+     * to read first and sidecars last.
+     */
+    private List<File> getMembers(File file, String key) {
+        File directory = file.getParentFile();
+        Map<String, List<File>> groups;
+        synchronized (mDirectories) {
+            groups = mDirectories.get(directory.getPath());
+        }
+
+        if (groups == null) {
+            groups = new HashMap<>();
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File sibling : files) {
+                    String siblingKey = getKey(sibling);
+                    if (siblingKey != null) {
+                        groups.computeIfAbsent(siblingKey, (k) -> new ArrayList<>()).add(sibling);
+                    }
+                }
+            }
+
+            synchronized (mDirectories) {
+                mDirectories.put(directory.getPath(), groups);
+            }
+        }
+
+        List<File> members = new ArrayList<>(groups.getOrDefault(key, new ArrayList<>()));
+        if (!members.contains(file)) {
+            members.add(file);
+        }
+
+        members.sort(Comparator.comparingInt((File member) -> {
+            int rank = getRank(member);
+            return rank < 0 ? Integer.MAX_VALUE : rank;
+        }).thenComparing(Comparator.naturalOrder()));
+
+        return members;
+    }
+
+    /**
+     * Returns the date of the first media member that gives one, or the
+     * outcome of the first one that failed.
+     */
+    private DateResolver.Result resolve(FileRecord fileRecord, List<File> members, Function<FileRecord, DateResolver.Result> dateFunction) {
+        DateResolver.Result failed = null;
+
+        for (File member : members) {
+            if (getRank(member) < 0) {
+                break;
+            }
+
+            DateResolver.Result result;
+            if (member.equals(fileRecord.getFile())) {
+                result = dateFunction.apply(fileRecord);
+            } else {
+                try {
+                    result = dateFunction.apply(new FileRecord(member, Files.readAttributes(member.toPath(), BasicFileAttributes.class)));
+                } catch (IOException ex) {
+                    continue;
+                }
+            }
+
+            if (result.isDated()) {
+                return result;
+            } else if (failed == null) {
+                failed = result;
+            }
+        }
+
+        return failed == null ? dateFunction.apply(fileRecord) : failed;
+    }
+}
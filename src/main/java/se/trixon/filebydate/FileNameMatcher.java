@@ -0,0 +1,224 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Matches file names against a set of include and exclude glob patterns.
+ * <p>
+ * Patterns are separated by {@code ;} and use the same syntax as a
+ * {@code glob:} {@link java.nio.file.PathMatcher}. Brace groups are expanded
+ * when compiled, patterns of the form {@code *.ext} end up in a set of
+ * extensions and the rest are joined into a single regular expression, so a
+ * name is tested with one hash lookup and at most one regex match per side.
+ * <p>
+ * Like the glob matcher of the default file system, names are matched without
+ * regard to case where file names are, as on Windows.
+ *
+ * @author Patrik Karlström
+ */
+public class FileNameMatcher {
+
+    private static final boolean CASE_INSENSITIVE = new File("a").equals(new File("A"));
+    private static final int MAX_EXPANSIONS = 256;
+
+    private final Part mExclude;
+    private final Part mInclude;
+
+    /**
+     * @param includePatterns the patterns a name must match, all names match
+     * when blank
+     * @param excludePatterns the patterns a name must not match, may be null
+     * @throws IllegalArgumentException if a pattern is invalid
+     */
+    public static FileNameMatcher compile(String includePatterns, String excludePatterns) {
+        Part include = Part.compile(includePatterns);
+        if (include.isEmpty()) {
+            include = Part.compile("*");
+        }
+
+        return new FileNameMatcher(include, Part.compile(excludePatterns));
+    }
+
+    private static void expand(String glob, List<String> expansions) {
+        int start = -1;
+        boolean escaped = false;
+        boolean inClass = false;
+
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (escaped) {
+                escaped = false;
+            } else if (c == '\\') {
+                escaped = true;
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == ']') {
+                inClass = false;
+            } else if (!inClass && c == '{') {
+                start = i;
+                break;
+            }
+        }
+
+        if (start < 0) {
+            if (expansions.size() == MAX_EXPANSIONS) {
+                throw new IllegalArgumentException("too many alternatives: " + glob);
+            }
+            expansions.add(glob);
+            return;
+        }
+
+        int end = glob.indexOf('}', start);
+        if (end < 0) {
+            throw new IllegalArgumentException("missing '}': " + glob);
+        }
+
+        String prefix = glob.substring(0, start);
+        String suffix = glob.substring(end + 1);
+        for (String alternative : glob.substring(start + 1, end).split(",", -1)) {
+            expand(prefix + alternative + suffix, expansions);
+        }
+    }
+
+    private static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        boolean inClass = false;
+
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (inClass) {
+                if (c == ']') {
+                    inClass = false;
+                    regex.append(']');
+                } else if (c == '\\' && i + 1 < glob.length()) {
+                    c = glob.charAt(++i);
+                    regex.append(Character.isLetterOrDigit(c) ? "" : "\\").append(c);
+                } else if (c == '\\' || c == '[' || c == '&') {
+                    regex.append('\\').append(c);
+                } else {
+                    regex.append(c);
+                }
+            } else if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else if (c == '[') {
+                inClass = true;
+                regex.append('[');
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '!') {
+                    regex.append('^');
+                    i++;
+                } else if (i + 1 < glob.length() && glob.charAt(i + 1) == '^') {
+                    regex.append("\\^");
+                    i++;
+                }
+            } else if (c == '\\') {
+                if (++i == glob.length()) {
+                    throw new IllegalArgumentException("trailing '\\': " + glob);
+                }
+                regex.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+            } else if ("^$.|+(){}".indexOf(c) >= 0) {
+                regex.append('\\').append(c);
+            } else {
+                regex.append(c);
+            }
+        }
+
+        if (inClass) {
+            throw new IllegalArgumentException("missing ']': " + glob);
+        }
+
+        return regex.toString();
+    }
+
+    private FileNameMatcher(Part include, Part exclude) {
+        mInclude = include;
+        mExclude = exclude;
+    }
+
+    public boolean matches(String name) {
+        return mInclude.matches(name) && !mExclude.matches(name);
+    }
+
+    private static class Part {
+
+        private boolean mAll;
+        private final HashSet<String> mExtensions = new HashSet<>();
+        private Pattern mPattern;
+
+        static Part compile(String patterns) {
+            Part part = new Part();
+            if (patterns == null) {
+                return part;
+            }
+
+            ArrayList<String> globs = new ArrayList<>();
+            for (String pattern : patterns.split(";")) {
+                if (!pattern.trim().isEmpty()) {
+                    expand(pattern.trim(), globs);
+                }
+            }
+
+            StringBuilder regex = new StringBuilder();
+            for (String glob : globs) {
+                String extension = glob.startsWith("*.") ? glob.substring(2) : null;
+
+                if (glob.equals("*")) {
+                    part.mAll = true;
+                } else if (extension != null && !extension.isEmpty() && extension.matches("[^*?\\[\\]\\\\.]+")) {
+                    part.mExtensions.add(CASE_INSENSITIVE ? extension.toLowerCase() : extension);
+                } else {
+                    regex.append(regex.length() == 0 ? "" : "|").append("(?:").append(toRegex(glob)).append(')');
+                }
+            }
+
+            if (regex.length() > 0) {
+                int flags = CASE_INSENSITIVE ? Pattern.DOTALL | Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : Pattern.DOTALL;
+                part.mPattern = Pattern.compile(regex.toString(), flags);
+            }
+
+            return part;
+        }
+
+        boolean isEmpty() {
+            return !mAll && mExtensions.isEmpty() && mPattern == null;
+        }
+
+        boolean matches(String name) {
+            if (mAll) {
+                return true;
+            }
+
+            if (!mExtensions.isEmpty()) {
+                int dot = name.lastIndexOf('.');
+                if (dot >= 0) {
+                    String extension = name.substring(dot + 1);
+                    if (mExtensions.contains(CASE_INSENSITIVE ? extension.toLowerCase() : extension)) {
+                        return true;
+                    }
+                }
+            }
+
+            return mPattern != null && mPattern.matcher(name).matches();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.ResourceBundle;
+import se.trixon.almond.util.SystemHelper;
+import se.trixon.filebydate.ui.MainApp;
+
+/**
+ * The order in which the files are processed.
+ * <p>
+ * {@link #INODE} reads the files roughly in the order they were allocated on
+ * disk, which cuts down on seeks on rotating media. It needs the
+ * {@code unix:ino} attribute and falls back to name order without it.
+ *
+ * @author Patrik Karlström
+ */
+public enum FileOrder {
+
+    NAME,
+    INODE;
+    private static final String UNIX_ATTRIBUTES = "unix:ino,size,lastModifiedTime,lastAccessTime,creationTime,isRegularFile,isDirectory,isSymbolicLink,isOther";
+    private static final boolean UNIX_SUPPORTED = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+    private final ResourceBundle mBundleUI = SystemHelper.getBundle(MainApp.class, "Bundle");
+
+    /**
+     * Returns the inode number read by {@link #readAttributes}, or 0 if it was
+     * not read.
+     */
+    public static long getInode(BasicFileAttributes attrs) {
+        return attrs instanceof InodeAttributes ? ((InodeAttributes) attrs).mInode : 0;
+    }
+
+    /**
+     * Reads the basic attributes of a file, together with its inode number
+     * when asked for and supported, with a single call.
+     */
+    public static BasicFileAttributes readAttributes(Path path, boolean inode, LinkOption... options) throws IOException {
+        if (inode && UNIX_SUPPORTED) {
+            try {
+                return new InodeAttributes(Files.readAttributes(path, UNIX_ATTRIBUTES, options));
+            } catch (UnsupportedOperationException | IllegalArgumentException ex) {
+                // another file system, fall through
+            }
+        }
+
+        return Files.readAttributes(path, BasicFileAttributes.class, options);
+    }
+
+    private FileOrder() {
+    }
+
+    public Comparator<FileRecord> getComparator() {
+        if (this == INODE) {
+            return Comparator.comparingLong(FileRecord::getInode).thenComparing(Comparator.naturalOrder());
+        }
+
+        return Comparator.naturalOrder();
+    }
+
+    @Override
+    public String toString() {
+        return mBundleUI.getString("fileOrder_" + name().toLowerCase());
+    }
+
+    /**
+     * The basic attributes and the inode number of a file, from one read of
+     * its {@code unix} attributes.
+     */
+    private static class InodeAttributes implements BasicFileAttributes {
+
+        private final Map<String, Object> mAttributes;
+        private final long mInode;
+
+        InodeAttributes(Map<String, Object> attributes) {
+            mAttributes = attributes;
+            mInode = ((Number) attributes.get("ino")).longValue();
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return (FileTime) mAttributes.get("creationTime");
+        }
+
+        @Override
+        public Object fileKey() {
+            return mInode;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return (Boolean) mAttributes.get("isDirectory");
+        }
+
+        @Override
+        public boolean isOther() {
+            return (Boolean) mAttributes.get("isOther");
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return (Boolean) mAttributes.get("isRegularFile");
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return (Boolean) mAttributes.get("isSymbolicLink");
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return (FileTime) mAttributes.get("lastAccessTime");
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return (FileTime) mAttributes.get("lastModifiedTime");
+        }
+
+        @Override
+        public long size() {
+            return ((Number) mAttributes.get("size")).longValue();
+        }
+    }
+}
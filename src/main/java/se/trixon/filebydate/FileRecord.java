@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+import java.io.File;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A source file together with the attributes read while scanning, so that
+ * processing does not have to stat the file again.
+ *
+ * @author Patrik Karlström
+ */
+public class FileRecord implements Comparable<FileRecord> {
+
+    private final long mCreated;
+    private final File mFile;
+    private final long mInode;
+    private final long mModified;
+    private final long mSize;
+
+    public FileRecord(File file, BasicFileAttributes attrs) {
+        this(file, attrs, 0);
+    }
+
+    public FileRecord(File file, BasicFileAttributes attrs, long inode) {
+        this(file, attrs.size(), attrs.lastModifiedTime().toMillis(), attrs.creationTime().toMillis(), inode);
+    }
+
+    public FileRecord(File file, long size, long modified, long created) {
+        this(file, size, modified, created, 0);
+    }
+
+    public FileRecord(File file, long size, long modified, long created, long inode) {
+        mFile = file;
+        mSize = size;
+        mModified = modified;
+        mCreated = created;
+        mInode = inode;
+    }
+
+    @Override
+    public int compareTo(FileRecord o) {
+        return mFile.compareTo(o.mFile);
+    }
+
+    /**
+     * Returns a 64 bit hash of the path, size and modification time, it changes
+     * whenever the file is replaced, modified or moved.
+     */
+    public long getIdentityHash() {
+        long hash = 0xcbf29ce484222325L;
+        String path = mFile.getAbsolutePath();
+        for (int i = 0; i < path.length(); i++) {
+            hash ^= path.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        hash = mix(hash ^ mSize);
+        hash = mix(hash ^ mModified);
+
+        return hash;
+    }
+
+    public long getCreated() {
+        return mCreated;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Returns the inode number, or 0 if it was not read.
+     */
+    public long getInode() {
+        return mInode;
+    }
+
+    public long getModified() {
+        return mModified;
+    }
+
+    public long getSize() {
+        return mSize;
+    }
+
+    @Override
+    public String toString() {
+        return mFile.toString();
+    }
+
+    private long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * A sorted collection of file records that is kept compact in memory and
+ * spills to disk when it grows past its memory budget.
+ * <p>
+ * Paths are packed as UTF-8 into a single byte array and the attributes are
+ * kept in primitive arrays. Each time the budget is exceeded the records are
+ * sorted and written to a temporary run file, iterating merges the runs. Paths
+ * are ordered by code point, which is the order of {@link File#compareTo} for
+ * all but supplementary characters, optionally after the inode number.
+ * <p>
+ * I/O errors while spilling or merging are thrown as
+ * {@link UncheckedIOException}.
+ *
+ * @author Patrik Karlström
+ */
+public class FileRecordStore implements Closeable, Iterable<FileRecord> {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int RECORD_OVERHEAD = Integer.BYTES + 4 * Long.BYTES;
+
+    private byte[] mBytes = new byte[BUFFER_SIZE];
+    private int mBytesUsed;
+    private int mCount;
+    private long[] mCreated = new long[1024];
+    private final boolean mInodeOrder;
+    private long[] mInodes = new long[1024];
+    private final long mMemoryBudget;
+    private long[] mModified = new long[1024];
+    private int[] mOffsets = new int[1025];
+    private final List<Closeable> mOpenRuns = new ArrayList<>();
+    private final List<Path> mRunFiles = new ArrayList<>();
+    private long[] mSizes = new long[1024];
+    private int mTotalCount;
+
+    /**
+     * @param memoryBudget the number of bytes of record data to keep in memory
+     * before spilling to disk
+     * @param fileOrder the order to return the records in
+     */
+    public FileRecordStore(long memoryBudget, FileOrder fileOrder) {
+        mMemoryBudget = memoryBudget;
+        mInodeOrder = fileOrder == FileOrder.INODE;
+    }
+
+    public void add(FileRecord fileRecord) {
+        byte[] path = fileRecord.getFile().getPath().getBytes(StandardCharsets.UTF_8);
+        long required = mBytesUsed + path.length + (long) (mCount + 1) * RECORD_OVERHEAD;
+
+        if (mCount > 0 && required > mMemoryBudget) {
+            spill();
+        }
+
+        if (mCount == mSizes.length) {
+            int capacity = mSizes.length * 2;
+            mCreated = Arrays.copyOf(mCreated, capacity);
+            mInodes = Arrays.copyOf(mInodes, capacity);
+            mModified = Arrays.copyOf(mModified, capacity);
+            mOffsets = Arrays.copyOf(mOffsets, capacity + 1);
+            mSizes = Arrays.copyOf(mSizes, capacity);
+        }
+
+        if (mBytesUsed + path.length > mBytes.length) {
+            mBytes = Arrays.copyOf(mBytes, Math.max(mBytes.length * 2, mBytesUsed + path.length));
+        }
+
+        System.arraycopy(path, 0, mBytes, mBytesUsed, path.length);
+        mBytesUsed += path.length;
+        mCreated[mCount] = fileRecord.getCreated();
+        mInodes[mCount] = fileRecord.getInode();
+        mModified[mCount] = fileRecord.getModified();
+        mSizes[mCount] = fileRecord.getSize();
+        mCount++;
+        mOffsets[mCount] = mBytesUsed;
+        mTotalCount++;
+    }
+
+    /**
+     * Removes the temporary run files.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Closeable run : mOpenRuns) {
+            run.close();
+        }
+
+        mOpenRuns.clear();
+
+        for (Path runFile : mRunFiles) {
+            Files.deleteIfExists(runFile);
+        }
+
+        mRunFiles.clear();
+    }
+
+    public boolean isEmpty() {
+        return mTotalCount == 0;
+    }
+
+    /**
+     * Returns the records in sorted order.
+     */
+    @Override
+    public Iterator<FileRecord> iterator() {
+        PriorityQueue<Run> queue = new PriorityQueue<>();
+
+        try {
+            Run memoryRun = new MemoryRun(sort());
+            if (memoryRun.next()) {
+                queue.add(memoryRun);
+            }
+
+            for (Path runFile : mRunFiles) {
+                FileRun fileRun = new FileRun(runFile);
+                mOpenRuns.add(fileRun);
+                if (fileRun.next()) {
+                    queue.add(fileRun);
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        return new Iterator<FileRecord>() {
+            @Override
+            public boolean hasNext() {
+                return !queue.isEmpty();
+            }
+
+            @Override
+            public FileRecord next() {
+                Run run = queue.poll();
+                if (run == null) {
+                    throw new NoSuchElementException();
+                }
+
+                FileRecord fileRecord = run.toFileRecord();
+                try {
+                    if (run.next()) {
+                        queue.add(run);
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+
+                return fileRecord;
+            }
+        };
+    }
+
+    public int size() {
+        return mTotalCount;
+    }
+
+    private int compare(int i, int j) {
+        if (mInodeOrder && mInodes[i] != mInodes[j]) {
+            return Long.compare(mInodes[i], mInodes[j]);
+        }
+
+        return Arrays.compareUnsigned(mBytes, mOffsets[i], mOffsets[i + 1], mBytes, mOffsets[j], mOffsets[j + 1]);
+    }
+
+    private void mergeSort(int[] src, int[] dst, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+        mergeSort(dst, src, from, mid);
+        mergeSort(dst, src, mid, to);
+
+        for (int i = from, p = from, q = mid; i < to; i++) {
+            if (q >= to || (p < mid && compare(src[p], src[q]) <= 0)) {
+                dst[i] = src[p++];
+            } else {
+                dst[i] = src[q++];
+            }
+        }
+    }
+
+    /**
+     * Returns the indices of the records in memory in order.
+     */
+    private int[] sort() {
+        int[] order = new int[mCount];
+        for (int i = 0; i < mCount; i++) {
+            order[i] = i;
+        }
+
+        mergeSort(order.clone(), order, 0, mCount);
+
+        return order;
+    }
+
+    private void spill() {
+        try {
+            Path runFile = Files.createTempFile("filebydate-", ".run");
+            mRunFiles.add(runFile);
+            runFile.toFile().deleteOnExit();
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runFile), BUFFER_SIZE))) {
+                for (int i : sort()) {
+                    out.writeInt(mOffsets[i + 1] - mOffsets[i]);
+                    out.write(mBytes, mOffsets[i], mOffsets[i + 1] - mOffsets[i]);
+                    out.writeLong(mSizes[i]);
+                    out.writeLong(mModified[i]);
+                    out.writeLong(mCreated[i]);
+                    out.writeLong(mInodes[i]);
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        mBytesUsed = 0;
+        mCount = 0;
+    }
+
+    private class FileRun extends Run implements Closeable {
+
+        private final DataInputStream mIn;
+
+        public FileRun(Path runFile) throws IOException {
+            mIn = new DataInputStream(new BufferedInputStream(Files.newInputStream(runFile), BUFFER_SIZE));
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+
+        @Override
+        boolean next() throws IOException {
+            int length;
+            try {
+                length = mIn.readInt();
+            } catch (EOFException ex) {
+                close();
+                return false;
+            }
+
+            byte[] path = new byte[length];
+            mIn.readFully(path);
+            mPath = path;
+            mPathFrom = 0;
+            mPathTo = length;
+            mRecordSize = mIn.readLong();
+            mRecordModified = mIn.readLong();
+            mRecordCreated = mIn.readLong();
+            mRecordInode = mIn.readLong();
+
+            return true;
+        }
+    }
+
+    private class MemoryRun extends Run {
+
+        private int mPosition = -1;
+        private final int[] mOrder;
+
+        public MemoryRun(int[] order) {
+            mOrder = order;
+            mPath = mBytes;
+        }
+
+        @Override
+        boolean next() {
+            if (++mPosition >= mOrder.length) {
+                return false;
+            }
+
+            int i = mOrder[mPosition];
+            mPathFrom = mOffsets[i];
+            mPathTo = mOffsets[i + 1];
+            mRecordSize = mSizes[i];
+            mRecordModified = mModified[i];
+            mRecordCreated = mCreated[i];
+            mRecordInode = mInodes[i];
+
+            return true;
+        }
+    }
+
+    /**
+     * A sorted source of records, positioned on its current record.
+     */
+    private abstract class Run implements Comparable<Run> {
+
+        protected byte[] mPath;
+        protected int mPathFrom;
+        protected int mPathTo;
+        protected long mRecordCreated;
+        protected long mRecordInode;
+        protected long mRecordModified;
+        protected long mRecordSize;
+
+        @Override
+        public int compareTo(Run o) {
+            if (mInodeOrder && mRecordInode != o.mRecordInode) {
+                return Long.compare(mRecordInode, o.mRecordInode);
+            }
+
+            return Arrays.compareUnsigned(mPath, mPathFrom, mPathTo, o.mPath, o.mPathFrom, o.mPathTo);
+        }
+
+        abstract boolean next() throws IOException;
+
+        FileRecord toFileRecord() {
+            String path = new String(mPath, mPathFrom, mPathTo - mPathFrom, StandardCharsets.UTF_8);
+
+            return new FileRecord(new File(path), mRecordSize, mRecordModified, mRecordCreated, mRecordInode);
+        }
+    }
+}
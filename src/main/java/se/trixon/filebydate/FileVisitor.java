@@ -17,70 +17,191 @@ package se.trixon.filebydate;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
+ * Lists directories and turns the matching files into {@link FileRecord}s.
+ * <p>
+ * Every entry is read once, the attributes of that read are both used to tell
+ * files from directories and carried on to the processing. Names are matched
+ * as listed, a {@link Path} is only created for the entries that are read.
  *
  * @author Patrik Karlström
  */
-public class FileVisitor extends SimpleFileVisitor<Path> {
+public class FileVisitor {
 
-    private List<File> mFiles = new ArrayList<>();
-    private boolean mInterrupted;
+    private final CancellationToken mCancellationToken;
+    private final FileNameMatcher mDirNameMatcher;
+    private final Consumer<FileRecord> mFileConsumer;
+    private final FileNameMatcher mFileNameMatcher;
+    private final boolean mFollowLinks;
+    private boolean mInodeOrder;
     private final Operation mOperation;
     private final OperationListener mOperationListener;
-    private final PathMatcher mPathMatcher;
+    private ScanCache mScanCache;
 
-    public FileVisitor(PathMatcher pathMatcher, List<File> paths, Operation operation) {
-        mFiles = paths;
-        mPathMatcher = pathMatcher;
+    public FileVisitor(FileNameMatcher fileNameMatcher, FileNameMatcher dirNameMatcher, Consumer<FileRecord> fileConsumer, Operation operation, boolean followLinks, CancellationToken cancellationToken) {
+        mFileConsumer = fileConsumer;
+        mFileNameMatcher = fileNameMatcher;
+        mDirNameMatcher = dirNameMatcher;
         mOperation = operation;
         mOperationListener = operation.getListener();
+        mFollowLinks = followLinks;
+        mCancellationToken = cancellationToken;
     }
 
-    public boolean isInterrupted() {
-        return mInterrupted;
+    public CancellationToken getCancellationToken() {
+        return mCancellationToken;
     }
 
-    @Override
-    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-        try {
-            TimeUnit.NANOSECONDS.sleep(1);
-        } catch (InterruptedException ex) {
-            mInterrupted = true;
-            return FileVisitResult.TERMINATE;
+    /**
+     * Reads the inode number of the matching files, where supported, so that
+     * they can be processed in inode order.
+     */
+    public void setInodeOrder(boolean inodeOrder) {
+        mInodeOrder = inodeOrder;
+    }
+
+    /**
+     * Takes the listings of unchanged directories from the cache, and stores
+     * the listings of the others in it.
+     */
+    public void setScanCache(ScanCache scanCache) {
+        mScanCache = scanCache;
+    }
+
+    /**
+     * Lists a directory and passes the matching files on to the consumer.
+     *
+     * @param dir the directory to list
+     * @param subDirs if not null, receives the sub directories that should be
+     * walked, symbolic links are only included when following links and
+     * excluded directories are left out so that they are never listed
+     * @return false if cancelled
+     */
+    public boolean visitDirectory(Path dir, List<Path> subDirs) {
+        if (mCancellationToken.isCancelled()) {
+            return false;
         }
 
         mOperationListener.onOperationLog(dir.toString());
-        String[] filePaths = dir.toFile().list();
-
-        if (filePaths != null && filePaths.length > 0) {
-            for (String fileName : filePaths) {
-                try {
-                    TimeUnit.NANOSECONDS.sleep(1);
-                } catch (InterruptedException ex) {
-                    mInterrupted = true;
-                    return FileVisitResult.TERMINATE;
+        long dirModified = 0;
+        if (mScanCache != null) {
+            try {
+                dirModified = Files.getLastModifiedTime(dir).toMillis();
+            } catch (IOException ex) {
+                return true;
+            }
+
+            ScanCache.Listing listing = mScanCache.get(dir.toString(), dirModified);
+            if (listing != null && (subDirs == null || listing.getSubDirs() != null)) {
+                return visitListing(dir, listing, subDirs);
+            }
+        }
+
+        String[] names = dir.toFile().list();
+        if (names == null) {
+            return true;
+        }
+
+        boolean caching = mScanCache != null;
+        ArrayList<String> cacheNames = new ArrayList<>();
+        ArrayList<FileRecord> cacheFileRecords = new ArrayList<>();
+        ArrayList<String> cacheSubDirs = new ArrayList<>();
+
+        Arrays.sort(names);
+        for (String name : names) {
+            if (mCancellationToken.isCancelled()) {
+                return false;
+            }
+
+            boolean matches = mFileNameMatcher.matches(name);
+            if (!matches && subDirs == null) {
+                continue;
+            }
+
+            Path entry = dir.resolve(name);
+            BasicFileAttributes attrs;
+            boolean link;
+            try {
+                attrs = FileOrder.readAttributes(entry, mInodeOrder && matches, LinkOption.NOFOLLOW_LINKS);
+                link = attrs.isSymbolicLink();
+                if (link) {
+                    attrs = FileOrder.readAttributes(entry, mInodeOrder && matches);
                 }
-                File file = new File(dir.toFile(), fileName);
-                if (file.isFile() && mPathMatcher.matches(file.toPath().getFileName())) {
-                    mFiles.add(file);
+            } catch (IOException ex) {
+                continue;
+            }
+
+            if (attrs.isRegularFile()) {
+                if (matches) {
+                    FileRecord fileRecord = new FileRecord(entry.toFile(), attrs, FileOrder.getInode(attrs));
+                    mFileConsumer.accept(fileRecord);
+                    if (caching) {
+                        cacheNames.add(name);
+                        cacheFileRecords.add(fileRecord);
+                    }
                 }
+            } else if (subDirs != null && attrs.isDirectory() && (mFollowLinks || !link) && mDirNameMatcher.matches(name)) {
+                subDirs.add(entry);
+                if (caching) {
+                    cacheSubDirs.add(name);
+                }
+            }
+        }
+
+        if (caching) {
+            ScanCache.Listing listing = new ScanCache.Listing(dirModified, cacheNames.size());
+            for (int i = 0; i < cacheNames.size(); i++) {
+                listing.setFile(i, cacheNames.get(i), cacheFileRecords.get(i));
             }
+            listing.setSubDirs(subDirs == null ? null : cacheSubDirs.toArray(new String[0]));
+            mScanCache.put(dir.toString(), listing);
         }
 
-        return FileVisitResult.CONTINUE;
+        return true;
     }
 
-    @Override
-    public FileVisitResult visitFileFailed(Path file, IOException exc) {
-        return FileVisitResult.CONTINUE;
+    /**
+     * Passes on the files of a cached listing. The files are read again, as a
+     * file modified in place does not change the time stamp of its directory,
+     * and the listing is updated with what was read.
+     */
+    private boolean visitListing(Path dir, ScanCache.Listing listing, List<Path> subDirs) {
+        File dirFile = dir.toFile();
+        for (int i = 0; i < listing.getFileCount(); i++) {
+            if (mCancellationToken.isCancelled()) {
+                return false;
+            }
+
+            FileRecord cached = listing.getFileRecord(dirFile, i);
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(cached.getFile().toPath(), BasicFileAttributes.class);
+            } catch (IOException ex) {
+                continue;
+            }
+
+            if (attrs.isRegularFile()) {
+                FileRecord fileRecord = new FileRecord(cached.getFile(), attrs, cached.getInode());
+                listing.setFile(i, cached.getFile().getName(), fileRecord);
+                mFileConsumer.accept(fileRecord);
+            }
+        }
+
+        if (subDirs != null) {
+            for (String subDir : listing.getSubDirs()) {
+                subDirs.add(dir.resolve(subDir));
+            }
+        }
+
+        return true;
     }
 }
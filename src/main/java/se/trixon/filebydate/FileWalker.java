@@ -0,0 +1,162 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Walks a file tree, depth first in the calling thread or using a fork/join
+ * pool where every sub directory found by the {@link FileVisitor} is listed by
+ * a task of its own.
+ * <p>
+ * The depth and link rules mirror those of
+ * {@link Files#walkFileTree(java.nio.file.Path, java.util.Set, int, java.nio.file.FileVisitor)}.
+ *
+ * @author Patrik Karlström
+ */
+public class FileWalker {
+
+    private static final Logger LOGGER = Logger.getLogger(FileWalker.class.getName());
+
+    private final FileVisitor mFileVisitor;
+    private final boolean mFollowLinks;
+    private final int mMaxDepth;
+    private final int mParallelism;
+
+    public static int getDefaultParallelism() {
+        return Math.max(4, Runtime.getRuntime().availableProcessors());
+    }
+
+    public FileWalker(FileVisitor fileVisitor, boolean followLinks, int maxDepth, int parallelism) {
+        mFileVisitor = fileVisitor;
+        mFollowLinks = followLinks;
+        mMaxDepth = maxDepth;
+        mParallelism = parallelism;
+    }
+
+    public CancellationToken getCancellationToken() {
+        return mFileVisitor.getCancellationToken();
+    }
+
+    /**
+     * @return false if cancelled
+     */
+    public boolean walk(Path start) {
+        CancellationToken cancellationToken = mFileVisitor.getCancellationToken();
+        if (mParallelism < 2) {
+            new DirectoryTask(start, 0, null).compute();
+
+            return !cancellationToken.isCancelled();
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(mParallelism);
+
+        try {
+            pool.submit(new DirectoryTask(start, 0, null)).get();
+        } catch (InterruptedException ex) {
+            cancellationToken.cancel();
+        } catch (ExecutionException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return !cancellationToken.isCancelled();
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int mDepth;
+        private final Path mDir;
+        private Object mFileKey;
+        private final DirectoryTask mParent;
+
+        public DirectoryTask(Path dir, int depth, DirectoryTask parent) {
+            mDir = dir;
+            mDepth = depth;
+            mParent = parent;
+        }
+
+        @Override
+        protected void compute() {
+            if (mFollowLinks && isLoop()) {
+                return;
+            }
+
+            List<Path> subDirs = mDepth + 1 < mMaxDepth ? new ArrayList<>() : null;
+            if (!mFileVisitor.visitDirectory(mDir, subDirs) || subDirs == null || subDirs.isEmpty()) {
+                return;
+            }
+
+            List<DirectoryTask> tasks = new ArrayList<>(subDirs.size());
+            for (Path subDir : subDirs) {
+                tasks.add(new DirectoryTask(subDir, mDepth + 1, this));
+            }
+
+            if (mParallelism < 2) {
+                for (DirectoryTask task : tasks) {
+                    task.compute();
+                }
+            } else {
+                ForkJoinTask.invokeAll(tasks);
+            }
+        }
+
+        /**
+         * A directory that is its own ancestor is skipped, just as
+         * walkFileTree does when it detects a file system loop.
+         */
+        private boolean isLoop() {
+            try {
+                mFileKey = Files.readAttributes(mDir, BasicFileAttributes.class).fileKey();
+            } catch (IOException ex) {
+                return true;
+            }
+
+            for (DirectoryTask ancestor = mParent; ancestor != null; ancestor = ancestor.mParent) {
+                if (mFileKey != null && ancestor.mFileKey != null) {
+                    if (Objects.equals(mFileKey, ancestor.mFileKey)) {
+                        return true;
+                    }
+                } else {
+                    try {
+                        if (Files.isSameFile(mDir, ancestor.mDir)) {
+                            return true;
+                        }
+                    } catch (IOException ex) {
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the source directories of a profile and hands new files over to the
+ * operation in batches.
+ * <p>
+ * A file is considered complete when no events have been reported for it
+ * during a short quiet period and its size and modification time are the same
+ * on two checks a quiet period apart, so that a writer that stalls for a while
+ * does not have its partial file processed.
+ *
+ * @author Patrik Karlström
+ */
+public class FileWatcher {
+
+    private static final long POLL_MILLIS = 100;
+    private static final long QUIET_MILLIS = 300;
+
+    private final CancellationToken mCancellationToken;
+    private final Path mDestDir;
+    private final FileNameMatcher mDirNameMatcher;
+    private final Map<WatchKey, Path> mDirs = new HashMap<>();
+    private final FileNameMatcher mFileNameMatcher;
+    private final Operation mOperation;
+    private final Map<Path, PendingFile> mPendingFiles = new HashMap<>();
+    private final Profile mProfile;
+    private final List<Path> mSourceDirs = new ArrayList<>();
+    private WatchService mWatchService;
+
+    public FileWatcher(Operation operation, Profile profile, CancellationToken cancellationToken) {
+        mOperation = operation;
+        mProfile = profile;
+        mCancellationToken = cancellationToken;
+        mFileNameMatcher = profile.getFileNameMatcher();
+        mDirNameMatcher = profile.getDirNameMatcher();
+        for (File sourceDir : profile.getSourceDirs()) {
+            mSourceDirs.add(sourceDir.toPath());
+        }
+        mDestDir = profile.getDestDir().toPath().toAbsolutePath().normalize();
+    }
+
+    /**
+     * Starts watching the source directories, and their sub directories when
+     * recursive, without blocking.
+     */
+    public void register() throws IOException {
+        mWatchService = FileSystems.getDefault().newWatchService();
+        for (Path sourceDir : mSourceDirs) {
+            registerTree(sourceDir, false);
+        }
+    }
+
+    /**
+     * Processes new files until cancelled.
+     */
+    public void watch() throws IOException {
+        try {
+            while (!mCancellationToken.isCancelled()) {
+                WatchKey key = mWatchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    handleEvents(key);
+                    key = mWatchService.poll();
+                }
+
+                List<FileRecord> batch = collectCompletedFiles();
+                if (!batch.isEmpty()) {
+                    mOperation.processBatch(batch);
+                }
+            }
+        } catch (InterruptedException ex) {
+            mCancellationToken.cancel();
+        } finally {
+            mWatchService.close();
+        }
+    }
+
+    private List<FileRecord> collectCompletedFiles() {
+        ArrayList<FileRecord> fileRecords = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        for (Iterator<Map.Entry<Path, PendingFile>> iterator = mPendingFiles.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry<Path, PendingFile> entry = iterator.next();
+            PendingFile pendingFile = entry.getValue();
+
+            if (now - pendingFile.mLastEvent < QUIET_MILLIS) {
+                continue;
+            }
+
+            BasicFileAttributes attrs;
+            try {
+                attrs = FileOrder.readAttributes(entry.getKey(), mProfile.getFileOrder() == FileOrder.INODE);
+            } catch (IOException ex) {
+                iterator.remove();
+                continue;
+            }
+
+            if (!attrs.isRegularFile()) {
+                iterator.remove();
+                continue;
+            }
+
+            long modified = attrs.lastModifiedTime().toMillis();
+            if (attrs.size() == pendingFile.mSize && modified == pendingFile.mModified) {
+                fileRecords.add(new FileRecord(entry.getKey().toFile(), attrs, FileOrder.getInode(attrs)));
+                iterator.remove();
+            } else {
+                pendingFile.mSize = attrs.size();
+                pendingFile.mModified = modified;
+                pendingFile.mLastEvent = now;
+            }
+        }
+
+        return fileRecords;
+    }
+
+    private void handleEvents(WatchKey key) {
+        Path dir = mDirs.get(key);
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (dir == null) {
+                break;
+            } else if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                registerTree(dir, true);
+                continue;
+            }
+
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                mPendingFiles.remove(path);
+            } else if (Files.isDirectory(path)) {
+                // a modified directory only had its entries changed, which are reported on their own
+                boolean created = event.kind() == StandardWatchEventKinds.ENTRY_CREATE;
+                if (created && mProfile.isRecursive() && (mProfile.isFollowLinks() || !Files.isSymbolicLink(path))) {
+                    registerTree(path, true);
+                }
+            } else {
+                touch(path);
+            }
+        }
+
+        if (!key.reset()) {
+            mDirs.remove(key);
+        }
+    }
+
+    private boolean isDestination(Path path) {
+        return path.toAbsolutePath().normalize().startsWith(mDestDir);
+    }
+
+    /**
+     * Registers a directory, and its sub directories when recursive.
+     *
+     * @param addFiles whether files already present should be processed, used
+     * for directories that appear while watching and after an overflow
+     */
+    private void registerTree(Path start, boolean addFiles) {
+        EnumSet<FileVisitOption> fileVisitOptions = EnumSet.noneOf(FileVisitOption.class);
+        if (mProfile.isFollowLinks()) {
+            fileVisitOptions = EnumSet.of(FileVisitOption.FOLLOW_LINKS);
+        }
+
+        int maxDepth = mProfile.getScanDepth();
+        if (maxDepth != Integer.MAX_VALUE && !mSourceDirs.contains(start)) {
+            for (Path sourceDir : mSourceDirs) {
+                if (start.startsWith(sourceDir)) {
+                    maxDepth -= sourceDir.relativize(start).getNameCount();
+                    break;
+                }
+            }
+        }
+
+        if (maxDepth < 1) {
+            return;
+        }
+
+        try {
+            Files.walkFileTree(start, fileVisitOptions, maxDepth, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    boolean excluded = !mSourceDirs.contains(dir) && !mDirNameMatcher.matches(dir.getFileName().toString());
+                    if (excluded || isDestination(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+
+                    mDirs.put(dir.register(mWatchService,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY,
+                            StandardWatchEventKinds.ENTRY_DELETE), dir);
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (addFiles && attrs.isRegularFile()) {
+                        touch(file);
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            mOperation.getListener().onOperationError(ex.getLocalizedMessage());
+        }
+    }
+
+    private boolean isInShard(Path path) {
+        Shard shard = mProfile.getShard();
+        if (shard == null) {
+            return true;
+        }
+
+        for (Path sourceDir : mSourceDirs) {
+            if (path.startsWith(sourceDir)) {
+                return shard.contains(sourceDir, path);
+            }
+        }
+
+        return false;
+    }
+
+    private void touch(Path path) {
+        if (mFileNameMatcher.matches(path.getFileName().toString()) && !isDestination(path) && isInShard(path)) {
+            mPendingFiles.computeIfAbsent(path, (p) -> new PendingFile()).mLastEvent = System.currentTimeMillis();
+        }
+    }
+
+    private static class PendingFile {
+
+        private long mLastEvent;
+        private long mModified = -1;
+        private long mSize = -1;
+    }
+}
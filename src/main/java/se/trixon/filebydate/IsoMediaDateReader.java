@@ -0,0 +1,318 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * Reads the creation date of ISO base media files, such as MP4, MOV, HEIC and
+ * CR3, with a few small reads however large the file is.
+ * <p>
+ * The box headers are followed from box to box, skipping the media data. HEIC
+ * files get the DateTimeOriginal of their Exif item, CR3 files the one of
+ * their CMT2 box, and other files the creation time of the movie header. Like
+ * {@link ExifDateReader}, null is returned when anything is unexpected.
+ *
+ * @author Patrik Karlström
+ */
+public class IsoMediaDateReader {
+
+    private static final byte[] CANON_UUID = {
+        (byte) 0x85, (byte) 0xc0, (byte) 0xb6, (byte) 0x87, (byte) 0x82, 0x0f, 0x11, (byte) 0xe0,
+        (byte) 0x81, 0x11, (byte) 0xf4, (byte) 0xce, 0x46, 0x2b, 0x6a, 0x48};
+    private static final long EPOCH_1904_SECONDS = 2082844800L;
+    private static final int MAX_BOXES = 256;
+    private static final int MAX_TABLE_BYTES = 64 * 1024;
+
+    /**
+     * Returns the creation date of an open file, or null if it is not found or
+     * the file is of another format.
+     */
+    public static Date read(FileChannel channel) throws IOException {
+        Box first = Box.read(channel, 0, channel.size());
+        if (first == null || !FileFormat.isIsoMediaBox(first.mType)) {
+            return null;
+        }
+
+        Box meta = findBox(channel, 0, channel.size(), "meta");
+        if (meta != null) {
+            Date date = readHeifExif(channel, meta);
+            if (date != null) {
+                return date;
+            }
+        }
+
+        Box moov = findBox(channel, 0, channel.size(), "moov");
+        if (moov == null) {
+            return null;
+        }
+
+        Box uuid = findBox(channel, moov.mPayload, moov.mEnd, "uuid");
+        if (uuid != null) {
+            Date date = readCanonExif(channel, uuid);
+            if (date != null) {
+                return date;
+            }
+        }
+
+        return readMovieHeader(channel, moov);
+    }
+
+    private static Box findBox(FileChannel channel, long start, long end, String type) throws IOException {
+        long position = start;
+
+        for (int i = 0; i < MAX_BOXES && position < end; i++) {
+            Box box = Box.read(channel, position, end);
+            if (box == null) {
+                return null;
+            } else if (box.mType.equals(type)) {
+                return box;
+            }
+
+            position = box.mEnd;
+        }
+
+        return null;
+    }
+
+    private static long getSized(ByteBuffer buffer, int size) {
+        switch (size) {
+            case 0:
+                return 0;
+            case 4:
+                return buffer.getInt() & 0xffffffffL;
+            case 8:
+                return buffer.getLong();
+            default:
+                throw new IllegalArgumentException(String.valueOf(size));
+        }
+    }
+
+    private static String getType(ByteBuffer buffer, int position) {
+        byte[] bytes = new byte[4];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(position + i);
+        }
+
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, long length) throws IOException {
+        if (position < 0 || length < 0 || length > MAX_TABLE_BYTES || position + length > channel.size()) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return null;
+            }
+        }
+
+        return buffer.flip();
+    }
+
+    private static Date readCanonExif(FileChannel channel, Box uuid) throws IOException {
+        ByteBuffer usertype = read(channel, uuid.mPayload, CANON_UUID.length);
+        if (usertype == null || !usertype.equals(ByteBuffer.wrap(CANON_UUID))) {
+            return null;
+        }
+
+        Box cmt2 = findBox(channel, uuid.mPayload + CANON_UUID.length, uuid.mEnd, "CMT2");
+
+        return cmt2 == null ? null : ExifDateReader.readTiff(channel, cmt2.mPayload, true);
+    }
+
+    /**
+     * Returns the id of the Exif item, or -1 if there is none.
+     */
+    private static long readExifItemId(FileChannel channel, Box iinf) throws IOException {
+        ByteBuffer header = read(channel, iinf.mPayload, 6);
+        if (header == null) {
+            return -1;
+        }
+
+        long position = iinf.mPayload + (header.get(0) == 0 ? 6 : 8);
+        for (int i = 0; i < MAX_BOXES && position < iinf.mEnd; i++) {
+            Box infe = Box.read(channel, position, iinf.mEnd);
+            if (infe == null) {
+                return -1;
+            }
+
+            ByteBuffer entry = read(channel, infe.mPayload, Math.min(16, infe.mEnd - infe.mPayload));
+            if (entry != null && entry.limit() >= 12 && infe.mType.equals("infe")) {
+                int version = entry.get(0);
+                int typePosition = version == 2 ? 8 : 10;
+                if (version >= 2 && entry.limit() >= typePosition + 4 && getType(entry, typePosition).equals("Exif")) {
+                    return version == 2 ? entry.getShort(4) & 0xffff : entry.getInt(4) & 0xffffffffL;
+                }
+            }
+
+            position = infe.mEnd;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the DateTimeOriginal of the Exif item of a HEIF meta box, found
+     * through the item information and item location boxes.
+     */
+    private static Date readHeifExif(FileChannel channel, Box meta) throws IOException {
+        long start = meta.mPayload + 4;
+        Box iinf = findBox(channel, start, meta.mEnd, "iinf");
+        Box iloc = findBox(channel, start, meta.mEnd, "iloc");
+        if (iinf == null || iloc == null) {
+            return null;
+        }
+
+        long itemId = readExifItemId(channel, iinf);
+        if (itemId < 0) {
+            return null;
+        }
+
+        long offset = readItemOffset(channel, iloc, itemId);
+        if (offset < 0) {
+            return null;
+        }
+
+        ByteBuffer tiffHeaderOffset = read(channel, offset, 4);
+        if (tiffHeaderOffset == null) {
+            return null;
+        }
+
+        return ExifDateReader.readTiff(channel, offset + 4 + (tiffHeaderOffset.getInt(0) & 0xffffffffL), false);
+    }
+
+    /**
+     * Returns the file offset of the first extent of an item, or -1 if it is
+     * not found or not stored in the file itself.
+     */
+    private static long readItemOffset(FileChannel channel, Box iloc, long itemId) throws IOException {
+        ByteBuffer buffer = read(channel, iloc.mPayload, iloc.mEnd - iloc.mPayload);
+        if (buffer == null || buffer.limit() < 8) {
+            return -1;
+        }
+
+        try {
+            int version = buffer.get();
+            buffer.position(4);
+            int sizes = buffer.getShort() & 0xffff;
+            int offsetSize = sizes >> 12;
+            int lengthSize = (sizes >> 8) & 0xf;
+            int baseOffsetSize = (sizes >> 4) & 0xf;
+            int indexSize = version == 0 ? 0 : sizes & 0xf;
+            long itemCount = version < 2 ? buffer.getShort() & 0xffff : buffer.getInt() & 0xffffffffL;
+
+            for (long i = 0; i < itemCount; i++) {
+                long id = version < 2 ? buffer.getShort() & 0xffff : buffer.getInt() & 0xffffffffL;
+                int constructionMethod = version == 0 ? 0 : buffer.getShort() & 0xf;
+                buffer.getShort();
+                long baseOffset = getSized(buffer, baseOffsetSize);
+                int extentCount = buffer.getShort() & 0xffff;
+                long offset = -1;
+
+                for (int j = 0; j < extentCount; j++) {
+                    getSized(buffer, indexSize);
+                    long extentOffset = getSized(buffer, offsetSize);
+                    getSized(buffer, lengthSize);
+                    if (j == 0) {
+                        offset = baseOffset + extentOffset;
+                    }
+                }
+
+                if (id == itemId) {
+                    return constructionMethod == 0 ? offset : -1;
+                }
+            }
+        } catch (RuntimeException ex) {
+            // a truncated or malformed table
+        }
+
+        return -1;
+    }
+
+    private static Date readMovieHeader(FileChannel channel, Box moov) throws IOException {
+        Box mvhd = findBox(channel, moov.mPayload, moov.mEnd, "mvhd");
+        if (mvhd == null) {
+            return null;
+        }
+
+        ByteBuffer header = read(channel, mvhd.mPayload, 12);
+        if (header == null) {
+            return null;
+        }
+
+        long creationTime = header.get(0) == 1 ? header.getLong(4) : header.getInt(4) & 0xffffffffL;
+        if (creationTime <= EPOCH_1904_SECONDS) {
+            return null;
+        }
+
+        return new Date((creationTime - EPOCH_1904_SECONDS) * 1000);
+    }
+
+    private IsoMediaDateReader() {
+    }
+
+    /**
+     * The type and extent of a box.
+     */
+    private static class Box {
+
+        private final long mEnd;
+        private final long mPayload;
+        private final String mType;
+
+        /**
+         * Returns the box at a position, or null if its header is invalid or
+         * it does not fit within the end.
+         */
+        static Box read(FileChannel channel, long position, long end) throws IOException {
+            ByteBuffer header = IsoMediaDateReader.read(channel, position, Math.min(16, end - position));
+            if (header == null || header.limit() < 8) {
+                return null;
+            }
+
+            long size = header.getInt(0) & 0xffffffffL;
+            long payload = position + 8;
+            if (size == 0) {
+                size = end - position;
+            } else if (size == 1) {
+                if (header.limit() < 16) {
+                    return null;
+                }
+                size = header.getLong(8);
+                payload += 8;
+            }
+
+            if (size < payload - position || position + size > end) {
+                return null;
+            }
+
+            return new Box(getType(header, 4), payload, position + size);
+        }
+
+        private Box(String type, long payload, long end) {
+            mType = type;
+            mPayload = payload;
+            mEnd = end;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+import java.io.File;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds a date in the name of a file, or of the directory it is in, without
+ * opening the file.
+ * <p>
+ * Patterns are separated by {@code ;} and made of the letters {@code yyyy},
+ * {@code MM}, {@code dd}, {@code HH}, {@code mm} and {@code ss}, one digit per
+ * letter, and literal characters, for example {@code yyyyMMdd_HHmmss}. Literal
+ * text is quoted with {@code '}, as in {@code 'IMG_'yyyyMMdd}, and {@code ''}
+ * is a quote. A match may not be next to other digits. The first pattern that
+ * matches a valid date from {@value #MIN_YEAR} or later wins. Dates are taken
+ * to be in the default time zone.
+ *
+ * @author Patrik Karlström
+ */
+public class NameDateParser {
+
+    public static final String DEFAULT_PATTERNS = "yyyyMMdd_HHmmss;yyyyMMdd-HHmmss;yyyy-MM-dd HH.mm.ss;yyyy-MM-dd_HH-mm-ss;yyyyMMdd;yyyy-MM-dd";
+    private static final String FIELD_LETTERS = "yMdHms";
+    private static final int MIN_YEAR = 1900;
+
+    private final List<NamePattern> mPatterns;
+
+    /**
+     * @param patterns the patterns to try, the default ones when blank
+     * @throws IllegalArgumentException if a pattern lacks a year, month or day
+     */
+    public static NameDateParser compile(String patterns) {
+        if (patterns == null || patterns.trim().isEmpty()) {
+            patterns = DEFAULT_PATTERNS;
+        }
+
+        ArrayList<NamePattern> namePatterns = new ArrayList<>();
+        for (String pattern : patterns.split(";")) {
+            if (!pattern.trim().isEmpty()) {
+                namePatterns.add(new NamePattern(pattern.trim()));
+            }
+        }
+
+        return new NameDateParser(namePatterns);
+    }
+
+    private NameDateParser(List<NamePattern> patterns) {
+        mPatterns = patterns;
+    }
+
+    /**
+     * Returns the date in the name of the file or of its parent directory, or
+     * null if there is none.
+     */
+    public Date parse(File file) {
+        Date date = parse(file.getName());
+        if (date == null && file.getParentFile() != null) {
+            date = parse(file.getParentFile().getName());
+        }
+
+        return date;
+    }
+
+    public Date parse(String name) {
+        for (NamePattern pattern : mPatterns) {
+            Date date = pattern.parse(name);
+            if (date != null) {
+                return date;
+            }
+        }
+
+        return null;
+    }
+
+    private static class NamePattern {
+
+        private final char[] mFields;
+        private final Pattern mPattern;
+
+        NamePattern(String pattern) {
+            StringBuilder regex = new StringBuilder("(?<!\\d)");
+            StringBuilder fields = new StringBuilder();
+
+            for (int i = 0; i < pattern.length();) {
+                char c = pattern.charAt(i);
+                if (c == '\'') {
+                    i = appendQuoted(pattern, i, regex);
+                    continue;
+                }
+
+                int end = i;
+                while (end < pattern.length() && pattern.charAt(end) == c) {
+                    end++;
+                }
+
+                if (FIELD_LETTERS.indexOf(c) >= 0) {
+                    if (fields.indexOf(String.valueOf(c)) >= 0) {
+                        throw new IllegalArgumentException(pattern);
+                    }
+                    fields.append(c);
+                    regex.append("(\\d{").append(end - i).append("})");
+                } else {
+                    regex.append(Pattern.quote(pattern.substring(i, end)));
+                }
+
+                i = end;
+            }
+
+            if (fields.indexOf("y") < 0 || fields.indexOf("M") < 0 || fields.indexOf("d") < 0) {
+                throw new IllegalArgumentException(pattern);
+            }
+
+            regex.append("(?!\\d)");
+            mFields = fields.toString().toCharArray();
+            mPattern = Pattern.compile(regex.toString());
+        }
+
+        /**
+         * Appends the quoted text that starts at an index and returns the index
+         * after it.
+         */
+        private int appendQuoted(String pattern, int start, StringBuilder regex) {
+            StringBuilder literal = new StringBuilder();
+            int i = start + 1;
+
+            if (i < pattern.length() && pattern.charAt(i) == '\'') {
+                literal.append('\'');
+                i++;
+            } else {
+                while (true) {
+                    if (i == pattern.length()) {
+                        throw new IllegalArgumentException(pattern);
+                    }
+
+                    char c = pattern.charAt(i++);
+                    if (c != '\'') {
+                        literal.append(c);
+                    } else if (i < pattern.length() && pattern.charAt(i) == '\'') {
+                        literal.append(c);
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+            }
+
+            regex.append(Pattern.quote(literal.toString()));
+
+            return i;
+        }
+
+        Date parse(String name) {
+            Matcher matcher = mPattern.matcher(name);
+
+            while (matcher.find()) {
+                int[] values = {0, 1, 1, 0, 0, 0};
+                for (int i = 0; i < mFields.length; i++) {
+                    values[FIELD_LETTERS.indexOf(mFields[i])] = Integer.parseInt(matcher.group(i + 1));
+                }
+
+                if (values[0] < MIN_YEAR) {
+                    continue;
+                }
+
+                try {
+                    LocalDateTime localDateTime = LocalDateTime.of(values[0], values[1], values[2], values[3], values[4], values[5]);
+
+                    return Date.from(localDateTime.atZone(ZoneId.systemDefault()).toInstant());
+                } catch (DateTimeException ex) {
+                    // try the next match
+                }
+            }
+
+            return null;
+        }
+    }
+}
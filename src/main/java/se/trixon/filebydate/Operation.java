@@ -22,18 +22,27 @@ import com.drew.metadata.Metadata;
 import com.drew.metadata.exif.ExifSubIFDDirectory;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileVisitOption;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
-import java.nio.file.PathMatcher;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
-import java.util.EnumSet;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.io.FileUtils;
@@ -49,136 +58,116 @@ import se.trixon.almond.util.Xlog;
  */
 public class Operation {
 
+    private static final FileRecord END_OF_STREAM = new FileRecord(new File(""), 0, 0, 0);
     private static final Logger LOGGER = Logger.getLogger(Operation.class.getName());
+    private static final int STREAM_QUEUE_CAPACITY = 1024;
 
     private final ResourceBundle mBundle;
-    private final List<Exception> mExceptions = new ArrayList<>();
-    private final List<File> mFiles = new ArrayList<>();
-    private boolean mInterrupted;
+    private final CancellationToken mCancellationToken = new CancellationToken();
+    private DateCache mDateCache;
+    private final FileGroups mFileGroups;
     private final OperationListener mListener;
+    private final EnumMap<Outcome, AtomicInteger> mOutcomeCounts = new EnumMap<>(Outcome.class);
+    private ProcessedIndex mProcessedIndex;
     private final Profile mProfile;
+    private final AtomicInteger mSkippedCount = new AtomicInteger();
 
     public Operation(OperationListener operationListener, Profile profile) {
         mListener = operationListener;
         mProfile = profile;
         mBundle = SystemHelper.getBundle(Operation.class, "Bundle");
+        mFileGroups = profile.isGroupByName() ? new FileGroups() : null;
+
+        for (Outcome outcome : Outcome.values()) {
+            mOutcomeCounts.put(outcome, new AtomicInteger());
+        }
     }
 
-    public void start() {
-        long startTime = System.currentTimeMillis();
+    /**
+     * Requests the operation to stop, the stages check for this between files
+     * so it may be called from any thread.
+     */
+    public void cancel() {
+        mCancellationToken.cancel();
+    }
 
-        Date date = new Date(startTime);
-        SimpleDateFormat dateFormat = new SimpleDateFormat();
+    /**
+     * Estimates the file count, size, date distribution and run time from a
+     * sample of the source instead of processing it.
+     *
+     * @param sampleFraction the fraction of the files in the sampled
+     * directories to read the date from
+     */
+    public void estimate(double sampleFraction) {
         mListener.onOperationStarted();
         mListener.onOperationProcessingStarted();
-        mListener.onOperationLog(dateFormat.format(date));
+        mListener.onOperationLog(new SimpleDateFormat().format(new Date()));
+        mListener.onOperationLog(String.format(mBundle.getString("estimating"), mProfile.getSourceDirAsString()));
+        openDateCache();
 
-        mInterrupted = !generateFileList();
-        String status;
+        int fileCount = new Estimator(this, mProfile, sampleFraction, mCancellationToken).estimate();
+        saveDateCache();
 
-        if (!mInterrupted && !mFiles.isEmpty()) {
-            mListener.onOperationLog(String.format(mBundle.getString("found_count"), mFiles.size()));
-            mListener.onOperationLog("");
-            status = Dict.PROCESSING.toString();
-            mListener.onOperationLog(status);
+        if (fileCount < 0) {
+            mListener.onOperationLog("\n" + Dict.TASK_ABORTED.toString());
+            mListener.onOperationInterrupted();
+        } else {
+            mListener.onOperationFinished(Dict.TASK_COMPLETED.toString(), fileCount);
+        }
+    }
 
-            int progress = 0;
-            SimpleDateFormat simpleDateFormat = mProfile.getDateFormat();
-            for (File sourceFile : mFiles) {
-                try {
-                    try {
-                        TimeUnit.MILLISECONDS.sleep(1);
-                    } catch (InterruptedException ex) {
-                        mInterrupted = true;
-                        break;
-                    }
+    /**
+     * Returns the number of files so far that had an outcome.
+     */
+    public int getOutcomeCount(Outcome outcome) {
+        return mOutcomeCounts.get(outcome).get();
+    }
 
-                    String fileDate = simpleDateFormat.format(getDate(sourceFile));
-                    File destDir = new File(mProfile.getDestDir(), fileDate);
+    public boolean isCancelled() {
+        return mCancellationToken.isCancelled();
+    }
 
-                    if (destDir.isFile()) {
-                        mListener.onOperationLog(String.format(Dict.Dialog.ERROR_DEST_DIR_IS_FILE.toString(), destDir.getAbsolutePath()));
-                        break;
-                    } else if (!destDir.exists() && !mProfile.isDryRun()) {
-                        FileUtils.forceMkdir(destDir);
-                    }
+    public void start() {
+        long startTime = System.currentTimeMillis();
 
-                    String destFilename = sourceFile.getName();
-                    String base = FilenameUtils.getBaseName(destFilename);
-                    String ext = FilenameUtils.getExtension(destFilename);
-                    NameCase caseBase = mProfile.getCaseBase();
-                    NameCase caseExt = mProfile.getCaseExt();
-
-                    if (caseBase != NameCase.UNCHANGED || caseExt != NameCase.UNCHANGED) {
-                        if (caseBase == NameCase.LOWER) {
-                            base = base.toLowerCase();
-                        } else if (caseBase == NameCase.UPPER) {
-                            base = base.toUpperCase();
-                        }
+        Date date = new Date(startTime);
+        SimpleDateFormat dateFormat = new SimpleDateFormat();
+        mListener.onOperationStarted();
+        mListener.onOperationProcessingStarted();
+        mListener.onOperationLog(dateFormat.format(date));
 
-                        if (caseExt == NameCase.LOWER) {
-                            ext = ext.toLowerCase();
-                        } else if (caseBase == NameCase.UPPER) {
-                            ext = ext.toUpperCase();
-                        }
+        if (mProfile.isIncremental()) {
+            mProcessedIndex = ProcessedIndex.open(mProfile);
+        }
 
-                        if (base.length() == 0) {
-                            destFilename = String.format(".%s", ext);
-                        } else if (ext.length() == 0) {
-                            destFilename = base;
-                        } else {
-                            destFilename = String.format("%s.%s", base, ext);
-                        }
-                    }
+        openDateCache();
 
-                    File destFile = new File(destDir, destFilename);
-                    String log;
-                    if (destFile.exists() && !mProfile.isReplaceExisting()) {
-                        log = String.format(Dict.Dialog.ERROR_DEST_FILE_EXISTS.toString(), destFile.getAbsolutePath());
-                    } else {
-                        Command command = mProfile.getCommand();
-                        String cmd = command == Command.COPY ? "cp" : "mv";
-                        log = String.format("%s %s  %s", cmd, sourceFile.getAbsolutePath(), destFile.toString());
-
-                        if (destDir.canWrite()) {
-                            if (!mProfile.isDryRun()) {
-                                if (command == Command.COPY) {
-                                    FileUtils.copyFile(sourceFile, destFile);
-                                } else if (command == Command.MOVE) {
-                                    if (File.listRoots().length > 1 || destFile.exists()) {
-                                        FileUtils.copyFile(sourceFile, destFile);
-                                        FileUtils.deleteQuietly(sourceFile);
-                                    } else {
-                                        FileUtils.moveFile(sourceFile, destFile);
-                                    }
-                                }
-                            }
-                        } else if (!mProfile.isDryRun()) {
-                            log = Dict.Dialog.ERROR_DEST_CANT_WRITE.toString();
-                        }
-                    }
+        int fileCount;
+        if (mProfile.isStreaming()) {
+            fileCount = processStream();
+        } else {
+            fileCount = processList();
+        }
 
-                    mListener.onOperationLog(getMessage(log));
-                } catch (IOException | ImageProcessingException | NullPointerException ex) {
-                    mListener.onOperationLog(getMessage(ex.getLocalizedMessage()));
-                }
-                mListener.onOperationProgress(++progress, mFiles.size());
-            }
+        if (mProcessedIndex != null) {
+            mListener.onOperationLog(String.format(mBundle.getString("skipped_processed_count"), mSkippedCount.get()));
+            saveProcessedIndex();
         }
 
-        if (mInterrupted) {
+        saveDateCache();
+
+        String status;
+        if (mCancellationToken.isCancelled()) {
             status = Dict.TASK_ABORTED.toString();
             mListener.onOperationLog("\n" + status);
             mListener.onOperationInterrupted();
         } else {
-            mExceptions.stream().forEach((exception) -> {
-                mListener.onOperationLog(String.format("#%s", exception.getLocalizedMessage()));
-            });
+            mListener.onOperationLog(getOutcomeSummary());
             long millis = System.currentTimeMillis() - startTime;
             long min = TimeUnit.MILLISECONDS.toMinutes(millis);
             long sec = TimeUnit.MILLISECONDS.toSeconds(millis) - TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(millis));
             status = String.format("%s (%d %s, %d %s)", Dict.TASK_COMPLETED.toString(), min, Dict.TIME_MIN.toString(), sec, Dict.TIME_SEC.toString());
-            mListener.onOperationFinished(status, mFiles.size());
+            mListener.onOperationFinished(status, fileCount);
 
             if (!mProfile.isDryRun()) {
                 mProfile.setLastRun(System.currentTimeMillis());
@@ -191,76 +180,218 @@ public class Operation {
         }
     }
 
-    private boolean generateFileList() {
-        mListener.onOperationLog("");
-        mListener.onOperationLog(Dict.GENERATING_FILELIST.toString());
-        PathMatcher pathMatcher = mProfile.getPathMatcher();
+    /**
+     * Processes the files already in the source and then keeps processing new
+     * files as they appear, until cancelled.
+     */
+    public void watch() {
+        mListener.onOperationStarted();
+        mListener.onOperationProcessingStarted();
+        mListener.onOperationLog(new SimpleDateFormat().format(new Date()));
 
-        EnumSet<FileVisitOption> fileVisitOptions = EnumSet.noneOf(FileVisitOption.class);
-        if (mProfile.isFollowLinks()) {
-            fileVisitOptions = EnumSet.of(FileVisitOption.FOLLOW_LINKS);
+        if (mProfile.isIncremental()) {
+            mProcessedIndex = ProcessedIndex.open(mProfile);
         }
 
-        File file = mProfile.getSourceDir();
-        if (file.isDirectory()) {
-            FileVisitor fileVisitor = new FileVisitor(pathMatcher, mFiles, this);
-            try {
-                if (mProfile.isRecursive()) {
-                    Files.walkFileTree(file.toPath(), fileVisitOptions, Integer.MAX_VALUE, fileVisitor);
+        openDateCache();
+
+        try {
+            FileWatcher fileWatcher = new FileWatcher(this, mProfile, mCancellationToken);
+            fileWatcher.register();
+
+            processList();
+            saveProcessedIndex();
+            saveDateCache();
+
+            if (!mCancellationToken.isCancelled()) {
+                mListener.onOperationLog("");
+                mListener.onOperationLog(String.format(mBundle.getString("watching"), mProfile.getSourceDirAsString()));
+                fileWatcher.watch();
+            }
+        } catch (IOException ex) {
+            mListener.onOperationFailed(ex.getLocalizedMessage());
+            return;
+        }
+
+        saveProcessedIndex();
+        saveDateCache();
+        mListener.onOperationLog("\n" + Dict.TASK_ABORTED.toString());
+        mListener.onOperationInterrupted();
+    }
+
+    private void addToProcessedIndex(FileRecord fileRecord) {
+        if (mProcessedIndex != null && !mProfile.isDryRun()) {
+            mProcessedIndex.add(fileRecord);
+        }
+    }
+
+    private DateResolver createDateResolver() {
+        return new DateResolver(this, mProfile, Options.getInstance().getMetadataThreads());
+    }
+
+    private boolean generateFileList(Consumer<FileRecord> fileConsumer, CancellationToken cancellationToken) {
+        mListener.onOperationLog("");
+        mListener.onOperationLog(Dict.GENERATING_FILELIST.toString());
+        FileNameMatcher fileNameMatcher = mProfile.getFileNameMatcher();
+
+        Consumer<FileRecord> consumer = fileConsumer;
+        if (mProcessedIndex != null) {
+            consumer = (fileRecord) -> {
+                if (mProcessedIndex.contains(fileRecord)) {
+                    mSkippedCount.incrementAndGet();
                 } else {
-                    Files.walkFileTree(file.toPath(), fileVisitOptions, 1, fileVisitor);
+                    fileConsumer.accept(fileRecord);
                 }
+            };
+        }
 
-                if (fileVisitor.isInterrupted()) {
-                    return false;
+        List<List<File>> sourceGroups = getSourceGroups();
+        int parallelism = 1;
+
+        if (mProfile.isParallelScan() || sourceGroups.size() > 1) {
+            if (mProfile.isParallelScan()) {
+                parallelism = FileWalker.getDefaultParallelism();
+            }
+
+            Object lock = new Object();
+            Consumer<FileRecord> unsynchronizedConsumer = consumer;
+            consumer = (fileRecord) -> {
+                synchronized (lock) {
+                    unsynchronizedConsumer.accept(fileRecord);
                 }
-            } catch (IOException ex) {
-                Xlog.e(getClass(), ex.getLocalizedMessage());
+            };
+        }
+
+        Shard shard = mProfile.getShard();
+        if (shard != null) {
+            List<Path> sourceDirs = new ArrayList<>();
+            for (File sourceDir : mProfile.getSourceDirs()) {
+                sourceDirs.add(sourceDir.toPath());
             }
-        } else if (file.isFile() && pathMatcher.matches(file.toPath().getFileName())) {
-            mFiles.add(file);
+
+            Consumer<FileRecord> shardConsumer = consumer;
+            consumer = (fileRecord) -> {
+                Path path = fileRecord.getFile().toPath();
+                for (Path sourceDir : sourceDirs) {
+                    if (path.startsWith(sourceDir)) {
+                        if (shard.contains(sourceDir, path)) {
+                            shardConsumer.accept(fileRecord);
+                        }
+                        return;
+                    }
+                }
+            };
         }
 
-        if (mFiles.isEmpty()) {
-            mListener.onOperationLog(Dict.FILELIST_EMPTY.toString());
+        FileVisitor fileVisitor = new FileVisitor(fileNameMatcher, mProfile.getDirNameMatcher(), consumer, this, mProfile.isFollowLinks(), cancellationToken);
+        fileVisitor.setInodeOrder(mProfile.getFileOrder() == FileOrder.INODE);
+        ScanCache scanCache = null;
+        if (mProfile.isScanCache()) {
+            scanCache = ScanCache.open(mProfile);
+            fileVisitor.setScanCache(scanCache);
+        }
+
+        FileWalker fileWalker = new FileWalker(fileVisitor, mProfile.isFollowLinks(), mProfile.getScanDepth(), parallelism);
+
+        if (sourceGroups.size() == 1) {
+            walkSources(sourceGroups.get(0), fileWalker, consumer);
         } else {
-            Collections.sort(mFiles);
+            ArrayList<Thread> scanners = new ArrayList<>();
+            Consumer<FileRecord> sharedConsumer = consumer;
+
+            for (List<File> sourceGroup : sourceGroups) {
+                Thread scanner = new Thread(() -> {
+                    walkSources(sourceGroup, fileWalker, sharedConsumer);
+                }, "Operation.Scanner-" + (scanners.size() + 1));
+                scanners.add(scanner);
+                scanner.start();
+            }
+
+            try {
+                for (Thread scanner : scanners) {
+                    scanner.join();
+                }
+            } catch (InterruptedException ex) {
+                cancellationToken.cancel();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (cancellationToken.isCancelled()) {
+            return false;
+        }
+
+        if (scanCache != null) {
+            try {
+                scanCache.save();
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE, null, ex);
+            }
         }
 
         return true;
     }
 
-    private Date getDate(File sourceFile) throws IOException, ImageProcessingException {
-        Date date = new Date(System.currentTimeMillis());
-        DateSource dateSource = mProfile.getDateSource();
-
-        if (dateSource == DateSource.FILE_CREATED) {
-            BasicFileAttributes attr = Files.readAttributes(sourceFile.toPath(), BasicFileAttributes.class);
-            date = new Date(attr.creationTime().toMillis());
-        } else if (dateSource == DateSource.FILE_MODIFIED) {
-            BasicFileAttributes attr = Files.readAttributes(sourceFile.toPath(), BasicFileAttributes.class);
-            date = new Date(attr.lastModifiedTime().toMillis());
-        } else if (dateSource == DateSource.EXIF_ORIGINAL) {
-            Metadata metadata;
-            Directory directory = null;
+    /**
+     * Groups the source directories by file store, the groups are scanned
+     * concurrently while the directories of a group are scanned one after the
+     * other to avoid competing for the same disk.
+     */
+    private List<List<File>> getSourceGroups() {
+        LinkedHashMap<Object, List<File>> sourceGroups = new LinkedHashMap<>();
 
+        for (File sourceDir : mProfile.getSourceDirs()) {
+            Object fileStore;
             try {
-                metadata = ImageMetadataReader.readMetadata(sourceFile);
-                directory = metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class);
-                date = directory.getDate(ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL);
-            } catch (NullPointerException | ImageProcessingException ex) {
-                String message;
-                if (directory == null) {
-                    message = String.format(Dict.Dialog.ERROR_EXIF_NOT_FOUND.toString(), sourceFile.getAbsolutePath());
+                fileStore = Files.getFileStore(sourceDir.toPath());
+            } catch (IOException ex) {
+                fileStore = sourceDir;
+            }
+
+            sourceGroups.computeIfAbsent(fileStore, (k) -> new ArrayList<>()).add(sourceDir);
+        }
+
+        return new ArrayList<>(sourceGroups.values());
+    }
+
+    /**
+     * Returns the log line of a file that got no date.
+     */
+    private String getFailureMessage(DateResolver.Result result) {
+        String path = result.getFileRecord().getFile().getAbsolutePath();
+        String message;
+
+        switch (result.getOutcome()) {
+            case NO_DATE:
+                if (result.getDateSource() == DateSource.FILE_NAME) {
+                    message = String.format(mBundle.getString("no_date_in_name"), path);
                 } else {
-                    message = String.format(Dict.Dialog.ERROR_FILE_FORMAT_NOT_SUPPORTED.toString(), sourceFile.getAbsolutePath());
+                    message = String.format(Dict.Dialog.ERROR_EXIF_NOT_FOUND.toString(), path);
                 }
+                break;
+            case UNSUPPORTED:
+                message = String.format(Dict.Dialog.ERROR_FILE_FORMAT_NOT_SUPPORTED.toString(), path);
+                break;
+            case TIMED_OUT:
+                message = String.format(mBundle.getString("metadata_timed_out"), path, mProfile.getMetadataTimeout());
+                break;
+            default:
+                message = result.getDetail();
+                break;
+        }
 
-                throw new ImageProcessingException(message);
+        return getMessage(message);
+    }
+
+    private String getOutcomeSummary() {
+        ArrayList<String> counts = new ArrayList<>();
+        mOutcomeCounts.forEach((outcome, count) -> {
+            if (count.get() > 0) {
+                counts.add(String.format("%s %d", outcome, count.get()));
             }
-        }
+        });
 
-        return date;
+        return String.join(", ", counts);
     }
 
     private String getMessage(String message) {
@@ -271,10 +402,508 @@ public class Operation {
         return StringUtils.defaultString(message, "");
     }
 
+    /**
+     * Waits for space in the queue unless the scan has been cancelled.
+     *
+     * @return false if the file could not be queued
+     */
+    private boolean offer(BlockingQueue<FileRecord> queue, FileRecord fileRecord, CancellationToken cancellationToken) {
+        try {
+            while (!cancellationToken.isCancelled()) {
+                if (queue.offer(fileRecord, 100, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException ex) {
+            cancellationToken.cancel();
+        }
+
+        return false;
+    }
+
+    private void openDateCache() {
+        if (mProfile.isDateCache()) {
+            mDateCache = DateCache.open(mProfile);
+        }
+    }
+
+    /**
+     * Copies or moves a single file to its date based destination.
+     *
+     * @return false if the operation has to be aborted
+     */
+    private boolean processFile(DateResolver.Result result, DateFolderFormat dateFormat) {
+        FileRecord fileRecord = result.getFileRecord();
+        File sourceFile = fileRecord.getFile();
+        if (!result.isDated()) {
+            report(sourceFile, result.getOutcome(), () -> getFailureMessage(result));
+
+            return true;
+        }
+
+        try {
+            String fileDate = dateFormat.format(result.getDate());
+            File destDir = new File(mProfile.getDestDir(), fileDate);
+
+            if (destDir.isFile()) {
+                report(sourceFile, Outcome.IO_ERROR, () -> String.format(Dict.Dialog.ERROR_DEST_DIR_IS_FILE.toString(), destDir.getAbsolutePath()));
+                return false;
+            } else if (!destDir.exists() && !mProfile.isDryRun()) {
+                FileUtils.forceMkdir(destDir);
+            }
+
+            String destFilename = sourceFile.getName();
+            String base = FilenameUtils.getBaseName(destFilename);
+            String ext = FilenameUtils.getExtension(destFilename);
+            NameCase caseBase = mProfile.getCaseBase();
+            NameCase caseExt = mProfile.getCaseExt();
+
+            if (caseBase != NameCase.UNCHANGED || caseExt != NameCase.UNCHANGED) {
+                if (caseBase == NameCase.LOWER) {
+                    base = base.toLowerCase();
+                } else if (caseBase == NameCase.UPPER) {
+                    base = base.toUpperCase();
+                }
+
+                if (caseExt == NameCase.LOWER) {
+                    ext = ext.toLowerCase();
+                } else if (caseBase == NameCase.UPPER) {
+                    ext = ext.toUpperCase();
+                }
+
+                if (base.length() == 0) {
+                    destFilename = String.format(".%s", ext);
+                } else if (ext.length() == 0) {
+                    destFilename = base;
+                } else {
+                    destFilename = String.format("%s.%s", base, ext);
+                }
+            }
+
+            File destFile = new File(destDir, destFilename);
+            if (destFile.exists() && !mProfile.isReplaceExisting()) {
+                addToProcessedIndex(fileRecord);
+                report(sourceFile, Outcome.SKIPPED_EXISTS, () -> getMessage(String.format(Dict.Dialog.ERROR_DEST_FILE_EXISTS.toString(), destFile.getAbsolutePath())));
+            } else if (!destDir.canWrite() && !mProfile.isDryRun()) {
+                report(sourceFile, Outcome.IO_ERROR, () -> Dict.Dialog.ERROR_DEST_CANT_WRITE.toString());
+            } else {
+                Command command = mProfile.getCommand();
+                if (!mProfile.isDryRun()) {
+                    if (command == Command.COPY) {
+                        FileUtils.copyFile(sourceFile, destFile);
+                    } else if (command == Command.MOVE) {
+                        if (File.listRoots().length > 1 || destFile.exists()) {
+                            FileUtils.copyFile(sourceFile, destFile);
+                            FileUtils.deleteQuietly(sourceFile);
+                        } else {
+                            FileUtils.moveFile(sourceFile, destFile);
+                        }
+                    }
+
+                    addToProcessedIndex(fileRecord);
+                }
+
+                String cmd = command == Command.COPY ? "cp" : "mv";
+                report(sourceFile, command == Command.COPY ? Outcome.COPIED : Outcome.MOVED, () -> getMessage(String.format("%s %s  %s", cmd, sourceFile.getAbsolutePath(), destFile.toString())));
+            }
+        } catch (IOException ex) {
+            report(sourceFile, Outcome.IO_ERROR, () -> getMessage(ex.getLocalizedMessage()));
+        }
+
+        return true;
+    }
+
+    /**
+     * Generates the complete, sorted, file list before processing it.
+     * <p>
+     * The list is kept in a {@link FileRecordStore} so that it spills to disk
+     * instead of exhausting the heap on very large sources.
+     *
+     * @return the number of files found
+     */
+    private int processList() {
+        long memoryBudget = Options.getInstance().getPlanMemoryBudget() * 1024L * 1024L;
+
+        try (FileRecordStore fileRecords = new FileRecordStore(memoryBudget, mProfile.getFileOrder())) {
+            if (generateFileList(fileRecords::add, mCancellationToken)) {
+                if (fileRecords.isEmpty()) {
+                    mListener.onOperationLog(Dict.FILELIST_EMPTY.toString());
+                } else {
+                    processFiles(fileRecords, fileRecords.size());
+                }
+            }
+
+            return fileRecords.size();
+        } catch (IOException | UncheckedIOException ex) {
+            mListener.onOperationError(ex.getLocalizedMessage());
+            mCancellationToken.cancel();
+
+            return 0;
+        }
+    }
+
+    /**
+     * Processes a sorted list of files, the dates are resolved ahead of the
+     * file being processed by a {@link DateResolver}.
+     *
+     * @return false if the operation was aborted
+     */
+    private boolean processFiles(Iterable<FileRecord> fileRecords, int fileCount) {
+        mListener.onOperationLog(String.format(mBundle.getString("found_count"), fileCount));
+        mListener.onOperationLog("");
+        mListener.onOperationLog(Dict.PROCESSING.toString());
+
+        int progress = 0;
+        DateFolderFormat dateFormat = mProfile.getDateFormat();
+        Iterator<FileRecord> iterator = fileRecords.iterator();
+
+        try (DateResolver dateResolver = createDateResolver()) {
+            while (true) {
+                while (!dateResolver.isFull() && iterator.hasNext()) {
+                    dateResolver.submit(iterator.next());
+                }
+
+                if (dateResolver.isEmpty()) {
+                    return true;
+                } else if (mCancellationToken.isCancelled() || !processFile(dateResolver.take(), dateFormat)) {
+                    return false;
+                }
+
+                mListener.onOperationProgress(++progress, fileCount);
+            }
+        } catch (InterruptedException ex) {
+            mCancellationToken.cancel();
+
+            return false;
+        }
+    }
+
+    /**
+     * Processes files while the source is still being scanned.
+     * <p>
+     * The scanner runs in its own thread and hands the files over through a
+     * bounded queue, it will block when the queue is full so memory usage
+     * stays flat regardless of the size of the source tree. An error in the
+     * scanner aborts the operation.
+     *
+     * @return the number of files found
+     */
+    private int processStream() {
+        BlockingQueue<FileRecord> queue = new ArrayBlockingQueue<>(STREAM_QUEUE_CAPACITY);
+        AtomicInteger foundCount = new AtomicInteger();
+        CancellationToken scanCancellationToken = new CancellationToken(mCancellationToken);
+        AtomicReference<RuntimeException> scanFailure = new AtomicReference<>();
+
+        Thread scannerThread = new Thread(() -> {
+            try {
+                generateFileList((fileRecord) -> {
+                    if (offer(queue, fileRecord, scanCancellationToken)) {
+                        foundCount.incrementAndGet();
+                    }
+                }, scanCancellationToken);
+            } catch (RuntimeException ex) {
+                scanFailure.set(ex);
+                mCancellationToken.cancel();
+            } finally {
+                offer(queue, END_OF_STREAM, scanCancellationToken);
+            }
+        });
+        scannerThread.setName("Operation.Scanner");
+        scannerThread.start();
+
+        mListener.onOperationLog("");
+        mListener.onOperationLog(Dict.PROCESSING.toString());
+
+        int progress = 0;
+        boolean endOfStream = false;
+        DateFolderFormat dateFormat = mProfile.getDateFormat();
+        try (DateResolver dateResolver = createDateResolver()) {
+            while (!mCancellationToken.isCancelled()) {
+                while (!endOfStream && !dateResolver.isFull()) {
+                    FileRecord fileRecord = dateResolver.isEmpty() ? queue.poll(100, TimeUnit.MILLISECONDS) : queue.poll();
+                    if (fileRecord == null) {
+                        break;
+                    } else if (fileRecord == END_OF_STREAM) {
+                        endOfStream = true;
+                    } else {
+                        dateResolver.submit(fileRecord);
+                    }
+                }
+
+                if (dateResolver.isEmpty()) {
+                    if (endOfStream) {
+                        break;
+                    }
+                } else if (!processFile(dateResolver.take(), dateFormat)) {
+                    break;
+                } else {
+                    mListener.onOperationProgress(++progress, foundCount.get());
+                }
+            }
+        } catch (InterruptedException ex) {
+            mCancellationToken.cancel();
+        }
+
+        scanCancellationToken.cancel();
+        try {
+            scannerThread.join();
+        } catch (InterruptedException ex) {
+            mCancellationToken.cancel();
+        }
+
+        if (scanFailure.get() != null) {
+            LOGGER.log(Level.SEVERE, null, scanFailure.get());
+            mListener.onOperationError(scanFailure.get().toString());
+        }
+
+        if (!mCancellationToken.isCancelled()) {
+            if (foundCount.get() == 0) {
+                mListener.onOperationLog(Dict.FILELIST_EMPTY.toString());
+            } else {
+                mListener.onOperationLog(String.format(mBundle.getString("found_count"), foundCount.get()));
+            }
+        }
+
+        return foundCount.get();
+    }
+
+    /**
+     * @param fileFormat the format of the file, or null if it was not sniffed
+     */
+    private DateResolver.Result readDate(FileRecord fileRecord, DateSource dateSource, FileFormat fileFormat) {
+        if (dateSource == DateSource.FILE_CREATED) {
+            return DateResolver.Result.dated(fileRecord, new Date(fileRecord.getCreated()));
+        } else if (dateSource == DateSource.FILE_MODIFIED) {
+            return DateResolver.Result.dated(fileRecord, new Date(fileRecord.getModified()));
+        } else if (dateSource == DateSource.FILE_NAME) {
+            Date date = mProfile.getNameDateParser().parse(fileRecord.getFile());
+            if (date == null) {
+                return DateResolver.Result.failed(fileRecord, Outcome.NO_DATE, dateSource, null);
+            }
+
+            return DateResolver.Result.dated(fileRecord, date);
+        }
+
+        return readExifDate(fileRecord, fileFormat);
+    }
+
+    /**
+     * Reads the Exif DateTimeOriginal of a file, from the date cache, if any,
+     * or with the fast reader for its format first and then with
+     * metadata-extractor. Files of other formats are not read at all.
+     * <p>
+     * The format is sniffed, unless it already was, and the fast reader reads
+     * from the same open file.
+     */
+    private DateResolver.Result readExifDate(FileRecord fileRecord, FileFormat fileFormat) {
+        Date date = mDateCache == null ? null : mDateCache.get(fileRecord, DateSource.EXIF_ORIGINAL);
+        if (date != null) {
+            return DateResolver.Result.dated(fileRecord, date);
+        }
+
+        File sourceFile = fileRecord.getFile();
+        try {
+            if (fileFormat != null && !fileFormat.isMetadataSupported()) {
+                return DateResolver.Result.failed(fileRecord, Outcome.UNSUPPORTED, DateSource.EXIF_ORIGINAL, null);
+            }
+
+            try (FileChannel channel = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ)) {
+                if (fileFormat == null) {
+                    fileFormat = FileFormat.sniff(channel);
+                }
+
+                if (!fileFormat.isMetadataSupported()) {
+                    return DateResolver.Result.failed(fileRecord, Outcome.UNSUPPORTED, DateSource.EXIF_ORIGINAL, null);
+                } else if (fileFormat == FileFormat.ISO_MEDIA) {
+                    date = IsoMediaDateReader.read(channel);
+                } else if (fileFormat == FileFormat.JPEG || fileFormat == FileFormat.PNG || fileFormat == FileFormat.TIFF) {
+                    date = ExifDateReader.read(channel);
+                }
+            }
+
+            if (date == null) {
+                Metadata metadata = ImageMetadataReader.readMetadata(sourceFile);
+                Directory directory = metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class);
+                if (directory != null) {
+                    date = directory.getDate(ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL);
+                }
+            }
+        } catch (ImageProcessingException | RuntimeException ex) {
+            return DateResolver.Result.failed(fileRecord, Outcome.UNSUPPORTED, DateSource.EXIF_ORIGINAL, null);
+        } catch (IOException ex) {
+            return DateResolver.Result.failed(fileRecord, Outcome.IO_ERROR, DateSource.EXIF_ORIGINAL, ex.getLocalizedMessage());
+        }
+
+        if (date == null) {
+            return DateResolver.Result.failed(fileRecord, Outcome.NO_DATE, DateSource.EXIF_ORIGINAL, null);
+        } else if (mDateCache != null) {
+            mDateCache.put(fileRecord, DateSource.EXIF_ORIGINAL, date);
+        }
+
+        return DateResolver.Result.dated(fileRecord, date);
+    }
+
+    /**
+     * Reports the outcome of a file to the listener and counts it.
+     *
+     * @param message formats the log line, only called if it is needed
+     */
+    private void report(File file, Outcome outcome, Supplier<String> message) {
+        mOutcomeCounts.get(outcome).incrementAndGet();
+        mListener.onOperationFileProcessed(file, outcome, message);
+    }
+
+    /**
+     * Returns the date of the first of the date sources of a file that gives
+     * one, or the outcome of the first one that failed.
+     * <p>
+     * The date sources are those of the first date source rule that matches
+     * the file, or those of the profile.
+     *
+     * @param readingContent whether date sources that read the content of the
+     * file may be used
+     */
+    private DateResolver.Result resolveDate(FileRecord fileRecord, boolean readingContent) {
+        List<DateSource> dateSources = null;
+        FileFormat fileFormat = null;
+        DateSourceRules dateSourceRules = mProfile.getDateSourceRules();
+        if (dateSourceRules != null) {
+            if (readingContent && dateSourceRules.isSniffing(fileRecord.getFile())) {
+                try {
+                    fileFormat = FileFormat.sniff(fileRecord.getFile());
+                } catch (IOException ex) {
+                    return DateResolver.Result.failed(fileRecord, Outcome.IO_ERROR, null, ex.getLocalizedMessage());
+                }
+            }
+
+            dateSources = dateSourceRules.getDateSources(fileRecord.getFile(), fileFormat);
+        }
+
+        if (dateSources == null) {
+            dateSources = mProfile.getDateSources();
+        }
+
+        DateResolver.Result failed = null;
+        for (DateSource dateSource : dateSources) {
+            if (readingContent || !dateSource.isReadingContent()) {
+                DateResolver.Result result = readDate(fileRecord, dateSource, fileFormat);
+                if (result.isDated()) {
+                    return result;
+                } else if (failed == null) {
+                    failed = result;
+                }
+            }
+        }
+
+        return failed == null ? DateResolver.Result.failed(fileRecord, Outcome.NO_DATE, null, null) : failed;
+    }
+
+    private void saveDateCache() {
+        if (mDateCache != null) {
+            try {
+                mDateCache.save();
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    private void saveProcessedIndex() {
+        if (mProcessedIndex != null && !mProfile.isDryRun()) {
+            try {
+                mProcessedIndex.save();
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    /**
+     * Walks the source directories of a group one at a time, a source that is
+     * a single file is passed on if it matches.
+     */
+    private void walkSources(List<File> sourceDirs, FileWalker fileWalker, Consumer<FileRecord> consumer) {
+        for (File file : sourceDirs) {
+            if (fileWalker.getCancellationToken().isCancelled()) {
+                return;
+            }
+
+            if (file.isDirectory()) {
+                fileWalker.walk(file.toPath());
+            } else if (file.isFile() && mProfile.getFileNameMatcher().matches(file.getName())) {
+                try {
+                    consumer.accept(new FileRecord(file, Files.readAttributes(file.toPath(), BasicFileAttributes.class)));
+                } catch (IOException ex) {
+                    Xlog.e(getClass(), ex.getLocalizedMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the date of a file from the first of its date sources that gives
+     * one, or the date of its group when grouping by name. Dates read from the
+     * content of the file are taken from and added to the date cache, if any.
+     * An unexpected failure only fails the file itself.
+     */
+    DateResolver.Result getDateResult(FileRecord fileRecord) {
+        try {
+            if (mFileGroups != null) {
+                return mFileGroups.getDate(fileRecord, (member) -> resolveDate(member, true));
+            }
+
+            return resolveDate(fileRecord, true);
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.WARNING, fileRecord.getFile().getAbsolutePath(), ex);
+
+            return DateResolver.Result.failed(fileRecord, ex);
+        }
+    }
+
     OperationListener getListener() {
         return mListener;
     }
 
+    /**
+     * Returns the date of a file whose metadata could not be read within the
+     * time limit, from its date sources that do without the content.
+     */
+    DateResolver.Result getTimedOutResult(FileRecord fileRecord, long timeout) {
+        DateResolver.Result result = resolveDate(fileRecord, false);
+        if (!result.isDated()) {
+            return DateResolver.Result.failed(fileRecord, Outcome.TIMED_OUT, null, null);
+        }
+
+        mListener.onOperationLog(getMessage(String.format(mBundle.getString("metadata_timed_out"), fileRecord.getFile().getAbsolutePath(), timeout)));
+
+        return result;
+    }
+
+    /**
+     * Processes the files that have appeared while watching.
+     */
+    void processBatch(List<FileRecord> fileRecords) {
+        ArrayList<FileRecord> batch = new ArrayList<>(fileRecords.size());
+        for (FileRecord fileRecord : fileRecords) {
+            if (mProcessedIndex != null && mProcessedIndex.contains(fileRecord)) {
+                mSkippedCount.incrementAndGet();
+            } else {
+                batch.add(fileRecord);
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            if (mFileGroups != null) {
+                mFileGroups.clearDirectories();
+            }
+
+            batch.sort(mProfile.getFileOrder().getComparator());
+            mListener.onOperationLog("");
+            processFiles(batch, batch.size());
+            saveProcessedIndex();
+        }
+    }
+
     public enum Command {
 
         COPY, MOVE;
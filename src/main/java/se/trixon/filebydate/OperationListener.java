@@ -15,6 +15,9 @@
  */
 package se.trixon.filebydate;
 
+import java.io.File;
+import java.util.function.Supplier;
+
 /**
  *
  * @author Patrik Karlström
@@ -25,6 +28,14 @@ public interface OperationListener {
 
     void onOperationFailed(String message);
 
+    /**
+     * Called once for every file that has been processed, or has failed.
+     *
+     * @param message formats the log line of the file, only call it if the
+     * line is needed
+     */
+    void onOperationFileProcessed(File file, Outcome outcome, Supplier<String> message);
+
     void onOperationFinished(String message, int fileCount);
 
     void onOperationInterrupted();
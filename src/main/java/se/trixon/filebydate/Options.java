@@ -25,8 +25,12 @@ import java.util.prefs.Preferences;
 public class Options {
 
     public static final String KEY_LOCALE = "locale";
+    public static final String KEY_METADATA_THREADS = "metadata_threads";
+    public static final String KEY_PLAN_MEMORY_BUDGET = "plan_memory_budget";
     public static final String KEY_WORD_WRAP = "word_wrap";
     private static final Locale DEFAULT_LOCALE = Locale.getDefault();
+    private static final int DEFAULT_METADATA_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_PLAN_MEMORY_BUDGET = 128;
     private static final boolean DEFAULT_WORD_WRAP = false;
     private final Preferences mPreferences = Preferences.userNodeForPackage(Options.class);
 
@@ -41,6 +45,21 @@ public class Options {
         return Locale.forLanguageTag(mPreferences.get(KEY_LOCALE, DEFAULT_LOCALE.toLanguageTag()));
     }
 
+    /**
+     * Returns the number of threads that read the metadata of files.
+     */
+    public int getMetadataThreads() {
+        return mPreferences.getInt(KEY_METADATA_THREADS, DEFAULT_METADATA_THREADS);
+    }
+
+    /**
+     * Returns the memory, in MB, that the file list may use before it is
+     * spilled to disk.
+     */
+    public int getPlanMemoryBudget() {
+        return mPreferences.getInt(KEY_PLAN_MEMORY_BUDGET, DEFAULT_PLAN_MEMORY_BUDGET);
+    }
+
     public Preferences getPreferences() {
         return mPreferences;
     }
@@ -53,6 +72,14 @@ public class Options {
         mPreferences.put(KEY_LOCALE, locale.toLanguageTag());
     }
 
+    public void setMetadataThreads(int value) {
+        mPreferences.putInt(KEY_METADATA_THREADS, value);
+    }
+
+    public void setPlanMemoryBudget(int value) {
+        mPreferences.putInt(KEY_PLAN_MEMORY_BUDGET, value);
+    }
+
     public void setWordWrap(boolean value) {
         mPreferences.putBoolean(KEY_WORD_WRAP, value);
     }
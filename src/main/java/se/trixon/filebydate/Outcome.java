@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+import java.util.ResourceBundle;
+import se.trixon.almond.util.SystemHelper;
+
+/**
+ * What became of a single file.
+ * <p>
+ * The first three are the outcomes of a file that got a date, the others tell
+ * why a file did not.
+ *
+ * @author Patrik Karlström
+ */
+public enum Outcome {
+
+    COPIED,
+    MOVED,
+    SKIPPED_EXISTS,
+    NO_DATE,
+    UNSUPPORTED,
+    TIMED_OUT,
+    IO_ERROR;
+    private final ResourceBundle mBundle = SystemHelper.getBundle(Outcome.class, "Bundle");
+
+    private Outcome() {
+    }
+
+    @Override
+    public String toString() {
+        return mBundle.getString("outcome_" + name().toLowerCase());
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The source files that a profile already has handled, stored as a sorted
+ * array of {@link FileRecord#getIdentityHash()} values.
+ * <p>
+ * The index is tied to the settings that decide where a file ends up, it is
+ * started over when any of them are changed.
+ *
+ * @author Patrik Karlström
+ */
+public class ProcessedIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(ProcessedIndex.class.getName());
+    private static final int MAGIC = 0x46424449;
+    private static final int VERSION = 1;
+
+    private long[] mAdded = new long[1024];
+    private int mAddedCount;
+    private final File mFile;
+    private volatile long[] mKeys = new long[0];
+    private final long mSignature;
+
+    public static ProcessedIndex open(Profile profile) {
+        File directory = new File(ProfileManager.getInstance().getDirectory(), "index");
+        ProcessedIndex processedIndex = new ProcessedIndex(new File(directory, getBaseName(profile) + ".idx"), getSignature(profile));
+
+        try {
+            processedIndex.load();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, null, ex);
+        }
+
+        return processedIndex;
+    }
+
+    /**
+     * Returns a hash of every setting that affects the destination of a file.
+     * Settings added later are only included when set, so that the indexes of
+     * profiles that do not use them stay valid.
+     */
+    private static long getSignature(Profile profile) {
+        String signature = String.join("|",
+                profile.getSourceDirAsString(),
+                profile.getDestDirAsString(),
+                profile.getCommand().name(),
+                profile.getDatePattern(),
+                profile.getDateSource().name(),
+                profile.getCaseBase().name(),
+                profile.getCaseExt().name()
+        );
+
+        if (profile.getFallbackDateSource() != null) {
+            signature += "|" + profile.getFallbackDateSource().name();
+        }
+
+        if (StringUtils.isNotBlank(profile.getNameDatePattern())) {
+            signature += "|" + profile.getNameDatePattern();
+        }
+
+        if (StringUtils.isNotBlank(profile.getDateRules())) {
+            signature += "|" + profile.getDateRules();
+        }
+
+        if (profile.isGroupByName()) {
+            signature += "|group";
+        }
+
+        return signature.hashCode();
+    }
+
+    /**
+     * Returns a file name, without extension, for data that belongs to the
+     * profile, and to its shard, if any.
+     */
+    static String getBaseName(Profile profile) {
+        String name = profile.getName();
+        if (name == null) {
+            name = String.format("cli-%s-%s", profile.getSourceDirAsString(), profile.getDestDirAsString());
+        }
+
+        Shard shard = profile.getShard();
+        if (shard != null) {
+            name = String.format("%s-shard-%d-of-%d", name, shard.getIndex(), shard.getCount());
+        }
+
+        return String.format("%s-%08x", name.replaceAll("[^A-Za-z0-9._-]", "_"), name.hashCode());
+    }
+
+    private ProcessedIndex(File file, long signature) {
+        mFile = file;
+        mSignature = signature;
+    }
+
+    public synchronized void add(FileRecord fileRecord) {
+        if (mAddedCount == mAdded.length) {
+            mAdded = Arrays.copyOf(mAdded, mAdded.length * 2);
+        }
+
+        mAdded[mAddedCount++] = fileRecord.getIdentityHash();
+    }
+
+    public boolean contains(FileRecord fileRecord) {
+        return Arrays.binarySearch(mKeys, fileRecord.getIdentityHash()) >= 0;
+    }
+
+    public int size() {
+        return mKeys.length;
+    }
+
+    public synchronized void save() throws IOException {
+        long[] keys = Arrays.copyOf(mKeys, mKeys.length + mAddedCount);
+        System.arraycopy(mAdded, 0, keys, mKeys.length, mAddedCount);
+        Arrays.sort(keys);
+
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (count == 0 || keys[i] != keys[count - 1]) {
+                keys[count++] = keys[i];
+            }
+        }
+
+        keys = Arrays.copyOf(keys, count);
+
+        FileUtils.forceMkdir(mFile.getParentFile());
+        File tempFile = new File(mFile.getParentFile(), mFile.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(mSignature);
+            out.writeInt(keys.length);
+            for (long key : keys) {
+                out.writeLong(key);
+            }
+        }
+
+        Files.move(tempFile.toPath(), mFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        mKeys = keys;
+        mAddedCount = 0;
+    }
+
+    private void load() throws IOException {
+        if (!mFile.isFile()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != mSignature) {
+                return;
+            }
+
+            long[] keys = new long[in.readInt()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = in.readLong();
+            }
+
+            mKeys = keys;
+        }
+    }
+}
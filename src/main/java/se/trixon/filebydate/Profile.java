@@ -17,9 +17,9 @@ package se.trixon.filebydate;
 
 import com.google.gson.annotations.SerializedName;
 import java.io.File;
-import java.nio.file.FileSystems;
-import java.nio.file.PathMatcher;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.ResourceBundle;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -37,6 +37,8 @@ import se.trixon.filebydate.ui.MainApp;
  */
 public class Profile implements Comparable<Profile>, Cloneable {
 
+    @SerializedName("additional_sources")
+    private List<File> mAdditionalSourceDirs = new ArrayList<>();
     private transient final ResourceBundle mBundle = SystemHelper.getBundle(Profile.class, "Bundle");
     private transient final ResourceBundle mBundleUI = SystemHelper.getBundle(MainApp.class, "Bundle");
     @SerializedName("case_base")
@@ -47,35 +49,72 @@ public class Profile implements Comparable<Profile>, Cloneable {
     private transient String mCaseExtString;
     @SerializedName("operation")
     private Command mCommand;
-    private transient SimpleDateFormat mDateFormat;
+    @SerializedName("date_cache")
+    private boolean mDateCache;
+    private transient DateFolderFormat mDateFormat;
     @SerializedName("date_pattern")
     private String mDatePattern;
+    @SerializedName("date_rules")
+    private String mDateRules;
     @SerializedName("date_source")
     private DateSource mDateSource = DateSource.FILE_CREATED;
+    private transient DateSourceRules mDateSourceRules;
     private transient String mDateSourceString;
     @SerializedName("description")
     private String mDescription;
     @SerializedName("destination")
     private File mDestDir;
+    private transient FileNameMatcher mDirNameMatcher;
     @SerializedName("dry_run")
     private boolean mDryRun;
+    @SerializedName("exclude_dir_pattern")
+    private String mExcludeDirPattern;
+    @SerializedName("exclude_pattern")
+    private String mExcludePattern;
+    @SerializedName("fallback_date_source")
+    private DateSource mFallbackDateSource;
+    private transient String mFallbackDateSourceString;
+    @SerializedName("file_order")
+    private FileOrder mFileOrder = FileOrder.NAME;
+    private transient String mFileOrderString;
     @SerializedName("file_pattern")
     private String mFilePattern;
+    private transient FileNameMatcher mFileNameMatcher;
     @SerializedName("follow_links")
     private boolean mFollowLinks;
+    @SerializedName("group_by_name")
+    private boolean mGroupByName;
+    @SerializedName("incremental")
+    private boolean mIncremental;
     @SerializedName("last_run")
     private long mLastRun;
+    @SerializedName("max_depth")
+    private int mMaxDepth;
+    private transient String mMaxDepthString;
+    @SerializedName("metadata_timeout")
+    private int mMetadataTimeout;
+    private transient String mMetadataTimeoutString;
     private transient boolean mModeCopy;
     private transient boolean mModeMove;
     @SerializedName("name")
     private String mName;
-    private transient PathMatcher mPathMatcher;
+    @SerializedName("name_date_pattern")
+    private String mNameDatePattern;
+    private transient NameDateParser mNameDateParser;
+    @SerializedName("parallel_scan")
+    private boolean mParallelScan;
     @SerializedName("recursive")
     private boolean mRecursive;
     @SerializedName("overwrite")
     private boolean mReplaceExisting;
+    @SerializedName("scan_cache")
+    private boolean mScanCache;
+    private transient Shard mShard;
+    private transient String mShardString;
     @SerializedName("source")
     private File mSourceDir;
+    @SerializedName("streaming")
+    private boolean mStreaming;
     private transient StringBuilder mValidationErrorBuilder = new StringBuilder();
 
     public Profile() {
@@ -90,10 +129,25 @@ public class Profile implements Comparable<Profile>, Cloneable {
         mCaseBaseString = commandLine.getOptionValue("case-base");
         mCaseExtString = commandLine.getOptionValue("case-ext");
 
+        mDateCache = commandLine.hasOption("date-cache");
         mDryRun = commandLine.hasOption("dry-run");
+        mExcludeDirPattern = commandLine.getOptionValue("exclude-dirs");
+        mExcludePattern = commandLine.getOptionValue("exclude");
+        mDateRules = commandLine.getOptionValue("date-rules");
+        mFallbackDateSourceString = commandLine.getOptionValue("fallback");
+        mFileOrderString = commandLine.getOptionValue("file-order");
+        mMaxDepthString = commandLine.getOptionValue("max-depth");
+        mMetadataTimeoutString = commandLine.getOptionValue("metadata-timeout");
+        mNameDatePattern = commandLine.getOptionValue("name-date");
         mFollowLinks = commandLine.hasOption("links");
+        mGroupByName = commandLine.hasOption("group");
+        mIncremental = commandLine.hasOption("incremental");
+        mParallelScan = commandLine.hasOption("parallel");
         mRecursive = commandLine.hasOption("recursive");
         mReplaceExisting = commandLine.hasOption("overwrite");
+        mScanCache = commandLine.hasOption("scan-cache");
+        mShardString = commandLine.getOptionValue("shard");
+        mStreaming = commandLine.hasOption("stream");
 
         setSourceAndDest(commandLine.getArgs());
     }
@@ -101,7 +155,10 @@ public class Profile implements Comparable<Profile>, Cloneable {
     @Override
     public Profile clone() {
         try {
-            return (Profile) super.clone();
+            Profile profile = (Profile) super.clone();
+            profile.setAdditionalSourceDirs(mAdditionalSourceDirs == null ? null : new ArrayList<>(mAdditionalSourceDirs));
+
+            return profile;
         } catch (CloneNotSupportedException ex) {
             Logger.getLogger(Profile.class.getName()).log(Level.SEVERE, null, ex);
             return null;
@@ -113,6 +170,10 @@ public class Profile implements Comparable<Profile>, Cloneable {
         return mName.compareTo(o.getName());
     }
 
+    public List<File> getAdditionalSourceDirs() {
+        return mAdditionalSourceDirs;
+    }
+
     public NameCase getCaseBase() {
         return mCaseBase;
     }
@@ -125,7 +186,7 @@ public class Profile implements Comparable<Profile>, Cloneable {
         return mCommand;
     }
 
-    public SimpleDateFormat getDateFormat() {
+    public DateFolderFormat getDateFormat() {
         return mDateFormat;
     }
 
@@ -133,10 +194,35 @@ public class Profile implements Comparable<Profile>, Cloneable {
         return mDatePattern;
     }
 
+    public String getDateRules() {
+        return mDateRules;
+    }
+
     public DateSource getDateSource() {
         return mDateSource;
     }
 
+    /**
+     * Returns the date source rules, or null if there are none.
+     */
+    public DateSourceRules getDateSourceRules() {
+        return mDateSourceRules;
+    }
+
+    /**
+     * Returns the date sources to try, in order, for files that no date source
+     * rule matches.
+     */
+    public List<DateSource> getDateSources() {
+        ArrayList<DateSource> dateSources = new ArrayList<>();
+        dateSources.add(mDateSource);
+        if (mFallbackDateSource != null && mFallbackDateSource != mDateSource) {
+            dateSources.add(mFallbackDateSource);
+        }
+
+        return dateSources;
+    }
+
     public String getDateSourceString() {
         return mDateSourceString;
     }
@@ -153,6 +239,38 @@ public class Profile implements Comparable<Profile>, Cloneable {
         return mDestDir == null ? "" : mDestDir.getPath();
     }
 
+    /**
+     * Returns a matcher that accepts the names of the directories to walk.
+     */
+    public FileNameMatcher getDirNameMatcher() {
+        return mDirNameMatcher;
+    }
+
+    public String getExcludeDirPattern() {
+        return mExcludeDirPattern;
+    }
+
+    public String getExcludePattern() {
+        return mExcludePattern;
+    }
+
+    /**
+     * Returns the date source to use for files that the date source gives no
+     * date for, or whose metadata could not be read within the time limit, or
+     * null for none.
+     */
+    public DateSource getFallbackDateSource() {
+        return mFallbackDateSource;
+    }
+
+    public FileNameMatcher getFileNameMatcher() {
+        return mFileNameMatcher;
+    }
+
+    public FileOrder getFileOrder() {
+        return mFileOrder;
+    }
+
     public String getFilePattern() {
         return mFilePattern;
     }
@@ -161,16 +279,55 @@ public class Profile implements Comparable<Profile>, Cloneable {
         return mLastRun;
     }
 
+    /**
+     * Returns the number of directory levels to descend into when recursive,
+     * 0 for no limit.
+     */
+    public int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    /**
+     * Returns the time in milliseconds that reading the metadata of a single
+     * file may take, 0 for no limit.
+     */
+    public int getMetadataTimeout() {
+        return mMetadataTimeout;
+    }
+
     public String getName() {
         return mName;
     }
 
+    public String getNameDatePattern() {
+        return mNameDatePattern;
+    }
+
+    public NameDateParser getNameDateParser() {
+        return mNameDateParser;
+    }
+
     public int getOperation() {
         return mModeCopy ? 0 : 1;
     }
 
-    public PathMatcher getPathMatcher() {
-        return mPathMatcher;
+    /**
+     * Returns the number of directory levels to list, counting the source
+     * directory as the first.
+     */
+    public int getScanDepth() {
+        if (!mRecursive) {
+            return 1;
+        }
+
+        return mMaxDepth > 0 ? mMaxDepth + 1 : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the shard to process, or null for all files.
+     */
+    public Shard getShard() {
+        return mShard;
     }
 
     public File getSourceDir() {
@@ -178,13 +335,38 @@ public class Profile implements Comparable<Profile>, Cloneable {
     }
 
     public String getSourceDirAsString() {
-        return mSourceDir == null ? "" : mSourceDir.getPath();
+        ArrayList<String> paths = new ArrayList<>();
+        for (File sourceDir : getSourceDirs()) {
+            paths.add(sourceDir.getPath());
+        }
+
+        return paths.isEmpty() ? "" : String.join(File.pathSeparator, paths);
+    }
+
+    /**
+     * Returns the source directory followed by the additional ones.
+     */
+    public List<File> getSourceDirs() {
+        ArrayList<File> sourceDirs = new ArrayList<>();
+        if (mSourceDir != null) {
+            sourceDirs.add(mSourceDir);
+        }
+
+        if (mAdditionalSourceDirs != null) {
+            sourceDirs.addAll(mAdditionalSourceDirs);
+        }
+
+        return sourceDirs;
     }
 
     public String getValidationError() {
         return mValidationErrorBuilder.toString();
     }
 
+    public boolean isDateCache() {
+        return mDateCache;
+    }
+
     public boolean isDryRun() {
         return mDryRun;
     }
@@ -193,6 +375,39 @@ public class Profile implements Comparable<Profile>, Cloneable {
         return mFollowLinks;
     }
 
+    /**
+     * Returns whether photos, videos and sidecars that share a base name
+     * within a directory are dated as one group.
+     */
+    public boolean isGroupByName() {
+        return mGroupByName;
+    }
+
+    public boolean isIncremental() {
+        return mIncremental;
+    }
+
+    public boolean isParallelScan() {
+        return mParallelScan;
+    }
+
+    /**
+     * Returns whether any of the date sources reads the content of files.
+     */
+    public boolean isReadingContent() {
+        if (mDateSourceRules != null && mDateSourceRules.isReadingContent()) {
+            return true;
+        }
+
+        for (DateSource dateSource : getDateSources()) {
+            if (dateSource.isReadingContent()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     public boolean isRecursive() {
         return mRecursive;
     }
@@ -201,6 +416,14 @@ public class Profile implements Comparable<Profile>, Cloneable {
         return mReplaceExisting;
     }
 
+    public boolean isScanCache() {
+        return mScanCache;
+    }
+
+    public boolean isStreaming() {
+        return mStreaming;
+    }
+
     public boolean isValid() {
         mValidationErrorBuilder = new StringBuilder();
 
@@ -211,13 +434,43 @@ public class Profile implements Comparable<Profile>, Cloneable {
         }
 
         try {
-            mPathMatcher = FileSystems.getDefault().getPathMatcher("glob:" + mFilePattern);
+            mFileNameMatcher = FileNameMatcher.compile(mFilePattern, mExcludePattern);
+        } catch (Exception e) {
+            addValidationError(String.format(mBundle.getString("invalid_file_pattern"), e.getMessage()));
+        }
+
+        try {
+            mDirNameMatcher = FileNameMatcher.compile(null, mExcludeDirPattern);
         } catch (Exception e) {
-            addValidationError("invalid file pattern: " + mFilePattern);
+            addValidationError(String.format(mBundle.getString("invalid_file_pattern"), e.getMessage()));
+        }
+
+        if (mMaxDepthString != null) {
+            try {
+                mMaxDepth = Integer.parseInt(mMaxDepthString);
+            } catch (NumberFormatException e) {
+                mMaxDepth = -1;
+            }
+        }
+
+        if (mMaxDepth < 0) {
+            addValidationError(String.format(mBundle.getString("invalid_max_depth"), mMaxDepthString));
+        }
+
+        if (mMetadataTimeoutString != null) {
+            try {
+                mMetadataTimeout = Integer.parseInt(mMetadataTimeoutString);
+            } catch (NumberFormatException e) {
+                mMetadataTimeout = -1;
+            }
+        }
+
+        if (mMetadataTimeout < 0) {
+            addValidationError(String.format(mBundle.getString("invalid_metadata_timeout"), mMetadataTimeoutString));
         }
 
         try {
-            mDateFormat = new SimpleDateFormat(mDatePattern, Options.getInstance().getLocale());
+            mDateFormat = DateFolderFormat.compile(mDatePattern, Options.getInstance().getLocale());
         } catch (Exception e) {
             addValidationError(String.format(mBundle.getString("invalid_date_pattern"), mDatePattern));
         }
@@ -230,6 +483,45 @@ public class Profile implements Comparable<Profile>, Cloneable {
             }
         }
 
+        if (mFallbackDateSourceString != null) {
+            try {
+                mFallbackDateSource = DateSource.valueOf(mFallbackDateSourceString.toUpperCase());
+            } catch (Exception e) {
+                addValidationError(String.format(mBundle.getString("invalid_date_source"), mFallbackDateSourceString));
+            }
+        }
+
+        mDateSourceRules = null;
+        if (StringUtils.isNotBlank(mDateRules)) {
+            try {
+                mDateSourceRules = DateSourceRules.parse(mDateRules);
+            } catch (IllegalArgumentException e) {
+                addValidationError(String.format(mBundle.getString("invalid_date_rules"), mDateRules));
+            }
+        }
+
+        try {
+            mNameDateParser = NameDateParser.compile(mNameDatePattern);
+        } catch (IllegalArgumentException e) {
+            addValidationError(String.format(mBundle.getString("invalid_name_date_pattern"), e.getMessage()));
+        }
+
+        if (mFileOrderString != null) {
+            try {
+                mFileOrder = FileOrder.valueOf(mFileOrderString.toUpperCase());
+            } catch (Exception e) {
+                addValidationError(String.format(mBundle.getString("invalid_file_order"), mFileOrderString));
+            }
+        }
+
+        if (mShardString != null) {
+            try {
+                mShard = Shard.parse(mShardString);
+            } catch (IllegalArgumentException e) {
+                addValidationError(String.format(mBundle.getString("invalid_shard"), mShardString));
+            }
+        }
+
         if (mCaseBaseString != null) {
             mCaseBase = NameCase.getCase(mCaseBaseString);
             if (mCaseBase == null) {
@@ -249,6 +541,12 @@ public class Profile implements Comparable<Profile>, Cloneable {
             addValidationError(String.format(mBundle.getString("invalid_source_dir"), mSourceDir));
         }
 
+        for (File sourceDir : getAdditionalSourceDirs()) {
+            if (!sourceDir.isDirectory()) {
+                addValidationError(String.format(mBundle.getString("invalid_source_dir"), sourceDir));
+            }
+        }
+
         if (mDestDir == null || !mDestDir.isDirectory()) {
             addValidationError(String.format(mBundle.getString("invalid_dest_dir"), mDestDir));
         }
@@ -256,6 +554,10 @@ public class Profile implements Comparable<Profile>, Cloneable {
         return mValidationErrorBuilder.length() == 0;
     }
 
+    public void setAdditionalSourceDirs(List<File> additionalSourceDirs) {
+        mAdditionalSourceDirs = additionalSourceDirs == null ? new ArrayList<>() : additionalSourceDirs;
+    }
+
     public void setCaseBase(NameCase caseBase) {
         mCaseBase = caseBase;
     }
@@ -268,10 +570,18 @@ public class Profile implements Comparable<Profile>, Cloneable {
         mCommand = operationMode;
     }
 
+    public void setDateCache(boolean dateCache) {
+        mDateCache = dateCache;
+    }
+
     public void setDatePattern(String datePattern) {
         mDatePattern = datePattern;
     }
 
+    public void setDateRules(String dateRules) {
+        mDateRules = dateRules;
+    }
+
     public void setDateSource(DateSource dateSource) {
         mDateSource = dateSource;
     }
@@ -292,6 +602,26 @@ public class Profile implements Comparable<Profile>, Cloneable {
         mDryRun = dryRun;
     }
 
+    public void setExcludeDirPattern(String excludeDirPattern) {
+        mExcludeDirPattern = excludeDirPattern;
+    }
+
+    public void setExcludePattern(String excludePattern) {
+        mExcludePattern = excludePattern;
+    }
+
+    public void setFallbackDateSource(DateSource fallbackDateSource) {
+        mFallbackDateSource = fallbackDateSource;
+    }
+
+    public void setFileNameMatcher(FileNameMatcher fileNameMatcher) {
+        mFileNameMatcher = fileNameMatcher;
+    }
+
+    public void setFileOrder(FileOrder fileOrder) {
+        mFileOrder = fileOrder;
+    }
+
     public void setFilePattern(String filePattern) {
         mFilePattern = filePattern;
     }
@@ -300,14 +630,34 @@ public class Profile implements Comparable<Profile>, Cloneable {
         mFollowLinks = links;
     }
 
+    public void setGroupByName(boolean groupByName) {
+        mGroupByName = groupByName;
+    }
+
+    public void setIncremental(boolean incremental) {
+        mIncremental = incremental;
+    }
+
     public void setLastRun(long lastRun) {
         mLastRun = lastRun;
     }
 
+    public void setMaxDepth(int maxDepth) {
+        mMaxDepth = maxDepth;
+    }
+
+    public void setMetadataTimeout(int metadataTimeout) {
+        mMetadataTimeout = metadataTimeout;
+    }
+
     public void setName(String name) {
         mName = name;
     }
 
+    public void setNameDatePattern(String nameDatePattern) {
+        mNameDatePattern = nameDatePattern;
+    }
+
     public void setOperation(int index) {
         if (index == 0) {
             mModeCopy = true;
@@ -320,8 +670,8 @@ public class Profile implements Comparable<Profile>, Cloneable {
         updateCommand();
     }
 
-    public void setPathMatcher(PathMatcher pathMatcher) {
-        mPathMatcher = pathMatcher;
+    public void setParallelScan(boolean parallelScan) {
+        mParallelScan = parallelScan;
     }
 
     public void setRecursive(boolean recursive) {
@@ -332,21 +682,44 @@ public class Profile implements Comparable<Profile>, Cloneable {
         mReplaceExisting = replaceExisting;
     }
 
+    public void setScanCache(boolean scanCache) {
+        mScanCache = scanCache;
+    }
+
+    /**
+     * @param shard the shard to process as {@code i/n}, or null for all files
+     */
+    public void setShard(String shard) {
+        mShardString = shard;
+        mShard = null;
+    }
+
+    /**
+     * Takes any number of sources followed by the destination, a source may
+     * end with a file pattern.
+     */
     public void setSourceAndDest(String[] args) {
-        if (args.length == 2) {
-            String source = args[0];
-            File sourceFile = new File(source);
-
-            if (sourceFile.isDirectory()) {
-                mSourceDir = sourceFile;
-                mFilePattern = "*";
-            } else {
-                String sourceDir = FilenameUtils.getFullPathNoEndSeparator(source);
-                mSourceDir = new File(sourceDir);
-                mFilePattern = FilenameUtils.getName(source);
+        if (args.length >= 2) {
+            ArrayList<File> sourceDirs = new ArrayList<>();
+            ArrayList<String> filePatterns = new ArrayList<>();
+
+            for (int i = 0; i < args.length - 1; i++) {
+                String source = args[i];
+                File sourceFile = new File(source);
+
+                if (sourceFile.isDirectory()) {
+                    sourceDirs.add(sourceFile);
+                    filePatterns.add("*");
+                } else {
+                    sourceDirs.add(new File(FilenameUtils.getFullPathNoEndSeparator(source)));
+                    filePatterns.add(FilenameUtils.getName(source));
+                }
             }
 
-            setDestDir(new File(args[1]));
+            mSourceDir = sourceDirs.remove(0);
+            mAdditionalSourceDirs = sourceDirs;
+            mFilePattern = filePatterns.contains("*") ? "*" : String.join(";", new LinkedHashSet<>(filePatterns));
+            setDestDir(new File(args[args.length - 1]));
         } else {
             addValidationError(mBundle.getString("invalid_arg_count"));
         }
@@ -356,11 +729,15 @@ public class Profile implements Comparable<Profile>, Cloneable {
         mSourceDir = source;
     }
 
+    public void setStreaming(boolean streaming) {
+        mStreaming = streaming;
+    }
+
     public String toDebugString() {
         isValid();
         String s = String.format(mBundle.getString("profile"),
                 mCommand.toString(),
-                mSourceDir,
+                getSourceDirAsString(),
                 mFilePattern,
                 mDestDir,
                 mDatePattern,
@@ -369,9 +746,24 @@ public class Profile implements Comparable<Profile>, Cloneable {
 
         StringBuilder b = new StringBuilder(s);
 
+        conditionalAppendDebugOption(b, mDateSourceRules != null, String.format(mBundle.getString("date_rules"), mDateRules));
+        conditionalAppendDebugOption(b, getDateSources().contains(DateSource.FILE_NAME), String.format(mBundle.getString("name_date"), StringUtils.isBlank(mNameDatePattern) ? NameDateParser.DEFAULT_PATTERNS : mNameDatePattern));
+        conditionalAppendDebugOption(b, isReadingContent() && mMetadataTimeout > 0, String.format(mBundle.getString("metadata_timeout"), mMetadataTimeout));
+        conditionalAppendDebugOption(b, mFallbackDateSource != null, String.format(mBundle.getString("fallback_date_source"), mFallbackDateSource));
+        conditionalAppendDebugOption(b, StringUtils.isNotBlank(mExcludePattern), String.format(mBundle.getString("excluding"), mExcludePattern));
+        conditionalAppendDebugOption(b, StringUtils.isNotBlank(mExcludeDirPattern), String.format(mBundle.getString("excluding_dirs"), mExcludeDirPattern));
+        conditionalAppendDebugOption(b, mFileOrder != FileOrder.NAME, mFileOrder.toString());
+        conditionalAppendDebugOption(b, mDateCache, mBundle.getString("date_cache"));
         conditionalAppendDebugOption(b, mFollowLinks, Dict.FOLLOW_LINKS.toString());
+        conditionalAppendDebugOption(b, mGroupByName, mBundle.getString("group_by_name"));
+        conditionalAppendDebugOption(b, mIncremental, mBundle.getString("incremental"));
+        conditionalAppendDebugOption(b, mParallelScan, mBundle.getString("parallel_scan"));
         conditionalAppendDebugOption(b, mRecursive, Dict.RECURSIVE.toString());
+        conditionalAppendDebugOption(b, mRecursive && mMaxDepth > 0, String.format(mBundle.getString("max_depth"), mMaxDepth));
         conditionalAppendDebugOption(b, mReplaceExisting, Dict.REPLACE.toString());
+        conditionalAppendDebugOption(b, mScanCache, mBundle.getString("scan_cache"));
+        conditionalAppendDebugOption(b, mShard != null, String.format(mBundle.getString("shard"), mShard));
+        conditionalAppendDebugOption(b, mStreaming, mBundle.getString("streaming"));
         conditionalAppendDebugOption(b, mCaseBase != NameCase.UNCHANGED, Dict.BASENAME.toString() + " " + mCaseBase);
         conditionalAppendDebugOption(b, mCaseExt != NameCase.UNCHANGED, Dict.EXTENSION.toString() + " " + mCaseExt);
 
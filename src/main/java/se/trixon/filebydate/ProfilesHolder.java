@@ -31,7 +31,7 @@ import org.apache.commons.io.FileUtils;
  */
 public class ProfilesHolder {
 
-    private static final int FILE_FORMAT_VERSION = 2;
+    private static final int FILE_FORMAT_VERSION = 4;
     private static final Gson GSON = new GsonBuilder()
             .setVersion(1.0)
             .serializeNulls()
@@ -61,6 +61,7 @@ public class ProfilesHolder {
     public LinkedList<Profile> getProfiles() {
         mProfiles.forEach((p) -> {
             p.setOperation(p.getCommand().ordinal());
+            p.setAdditionalSourceDirs(p.getAdditionalSourceDirs());
         });
 
         return mProfiles;
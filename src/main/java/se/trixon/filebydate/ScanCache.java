@@ -0,0 +1,239 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * The matching files and the sub directories of every directory of a previous
+ * scan, together with the modification time of the directory.
+ * <p>
+ * A directory whose modification time is unchanged has had no entries added,
+ * removed or renamed, so its listing is taken from the cache without listing
+ * the directory or reading its other entries. Files that are modified in place
+ * do not change the directory, so the matching files are still read for their
+ * size and times.
+ *
+ * @author Patrik Karlström
+ */
+public class ScanCache {
+
+    private static final Logger LOGGER = Logger.getLogger(ScanCache.class.getName());
+    private static final int MAGIC = 0x46424453;
+    private static final long RACY_MILLIS = 2000;
+    private static final int VERSION = 2;
+
+    private Map<String, Listing> mCached = new ConcurrentHashMap<>();
+    private final File mFile;
+    private final Map<String, Listing> mScanned = new ConcurrentHashMap<>();
+    private final long mSignature;
+    private final long mStartTime = System.currentTimeMillis();
+
+    public static ScanCache open(Profile profile) {
+        File directory = new File(ProfileManager.getInstance().getDirectory(), "cache");
+        ScanCache scanCache = new ScanCache(new File(directory, ProcessedIndex.getBaseName(profile) + ".scan"), getSignature(profile));
+
+        try {
+            scanCache.load();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, null, ex);
+        }
+
+        return scanCache;
+    }
+
+    private static long getSignature(Profile profile) {
+        return String.join("|",
+                profile.getSourceDirAsString(),
+                String.valueOf(profile.getFilePattern()),
+                String.valueOf(profile.getExcludePattern()),
+                String.valueOf(profile.getExcludeDirPattern()),
+                String.valueOf(profile.isFollowLinks()),
+                profile.getFileOrder().name()
+        ).hashCode();
+    }
+
+    private ScanCache(File file, long signature) {
+        mFile = file;
+        mSignature = signature;
+    }
+
+    /**
+     * Returns the cached listing of a directory, or null if it has been
+     * modified since it was cached.
+     */
+    public Listing get(String dir, long modified) {
+        Listing listing = mCached.get(dir);
+        if (listing == null || listing.mModified != modified) {
+            return null;
+        }
+
+        mScanned.put(dir, listing);
+
+        return listing;
+    }
+
+    /**
+     * Stores the listing of a directory, unless the directory was modified so
+     * recently that a later change could end up with the same time stamp.
+     */
+    public void put(String dir, Listing listing) {
+        if (mStartTime - listing.mModified >= RACY_MILLIS) {
+            mScanned.put(dir, listing);
+        }
+    }
+
+    /**
+     * Replaces the cache file with the directories of this scan.
+     */
+    public void save() throws IOException {
+        FileUtils.forceMkdir(mFile.getParentFile());
+        File tempFile = new File(mFile.getParentFile(), mFile.getName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(mSignature);
+            out.writeInt(mScanned.size());
+
+            for (Map.Entry<String, Listing> entry : mScanned.entrySet()) {
+                Listing listing = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(listing.mModified);
+                out.writeInt(listing.mNames.length);
+                for (int i = 0; i < listing.mNames.length; i++) {
+                    out.writeUTF(listing.mNames[i]);
+                    out.writeLong(listing.mSizes[i]);
+                    out.writeLong(listing.mFileModified[i]);
+                    out.writeLong(listing.mCreated[i]);
+                    out.writeLong(listing.mInodes[i]);
+                }
+                if (listing.mSubDirs == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(listing.mSubDirs.length);
+                    for (String subDir : listing.mSubDirs) {
+                        out.writeUTF(subDir);
+                    }
+                }
+            }
+        }
+
+        Files.move(tempFile.toPath(), mFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load() throws IOException {
+        if (!mFile.isFile()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != mSignature) {
+                return;
+            }
+
+            int count = in.readInt();
+            Map<String, Listing> cached = new ConcurrentHashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String dir = in.readUTF();
+                Listing listing = new Listing(in.readLong(), in.readInt());
+                for (int j = 0; j < listing.mNames.length; j++) {
+                    listing.mNames[j] = in.readUTF();
+                    listing.mSizes[j] = in.readLong();
+                    listing.mFileModified[j] = in.readLong();
+                    listing.mCreated[j] = in.readLong();
+                    listing.mInodes[j] = in.readLong();
+                }
+                int subDirCount = in.readInt();
+                if (subDirCount >= 0) {
+                    listing.mSubDirs = new String[subDirCount];
+                    for (int j = 0; j < subDirCount; j++) {
+                        listing.mSubDirs[j] = in.readUTF();
+                    }
+                }
+                cached.put(dir, listing);
+            }
+
+            mCached = cached;
+        }
+    }
+
+    /**
+     * The matching files and the sub directories to walk of a directory. The
+     * sub directories are only known if the directory was walked into.
+     */
+    public static class Listing {
+
+        private final long[] mCreated;
+        private final long[] mFileModified;
+        private final long[] mInodes;
+        private final long mModified;
+        private final String[] mNames;
+        private final long[] mSizes;
+        private String[] mSubDirs;
+
+        public Listing(long modified, int fileCount) {
+            mModified = modified;
+            mNames = new String[fileCount];
+            mSizes = new long[fileCount];
+            mFileModified = new long[fileCount];
+            mCreated = new long[fileCount];
+            mInodes = new long[fileCount];
+        }
+
+        public int getFileCount() {
+            return mNames.length;
+        }
+
+        public FileRecord getFileRecord(File dir, int index) {
+            return new FileRecord(new File(dir, mNames[index]), mSizes[index], mFileModified[index], mCreated[index], mInodes[index]);
+        }
+
+        /**
+         * Returns the sub directories to walk, or null if they were not
+         * listed, as for a directory at the maximum depth.
+         */
+        public String[] getSubDirs() {
+            return mSubDirs;
+        }
+
+        public void setFile(int index, String name, FileRecord fileRecord) {
+            mNames[index] = name;
+            mSizes[index] = fileRecord.getSize();
+            mFileModified[index] = fileRecord.getModified();
+            mCreated[index] = fileRecord.getCreated();
+            mInodes[index] = fileRecord.getInode();
+        }
+
+        public void setSubDirs(String[] subDirs) {
+            mSubDirs = subDirs;
+        }
+    }
+}
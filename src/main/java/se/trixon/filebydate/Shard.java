@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.filebydate;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * One of n disjoint parts of the source files, chosen by a hash of the path
+ * relative to the source directory.
+ * <p>
+ * The hash only depends on the relative path, with {@code /} as separator, so
+ * processes on different machines that mount the same share agree on which
+ * shard a file belongs to without any coordination.
+ *
+ * @author Patrik Karlström
+ */
+public class Shard {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int mCount;
+    private final int mIndex;
+
+    /**
+     * @param shard the shard as {@code i/n}, where i is in 1..n
+     * @throws IllegalArgumentException if the shard is invalid
+     */
+    public static Shard parse(String shard) {
+        String[] parts = shard.trim().split("/", -1);
+        if (parts.length != 2) {
+            throw new IllegalArgumentException(shard);
+        }
+
+        int index;
+        int count;
+        try {
+            index = Integer.parseInt(parts[0].trim());
+            count = Integer.parseInt(parts[1].trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(shard);
+        }
+
+        if (count < 1 || index < 1 || index > count) {
+            throw new IllegalArgumentException(shard);
+        }
+
+        return new Shard(index, count);
+    }
+
+    static long hash(String relativePath) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : relativePath.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+
+        return hash;
+    }
+
+    private Shard(int index, int count) {
+        mIndex = index;
+        mCount = count;
+    }
+
+    /**
+     * Returns whether a file found under a source directory belongs to this
+     * shard.
+     */
+    public boolean contains(Path sourceDir, Path file) {
+        Path relativePath = sourceDir.equals(file) ? file.getFileName() : sourceDir.relativize(file);
+        StringBuilder builder = new StringBuilder();
+        for (Path name : relativePath) {
+            builder.append(builder.length() == 0 ? "" : "/").append(name);
+        }
+
+        return Long.remainderUnsigned(hash(builder.toString()), mCount) == mIndex - 1;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public int getIndex() {
+        return mIndex;
+    }
+
+    @Override
+    public String toString() {
+        return mIndex + "/" + mCount;
+    }
+}
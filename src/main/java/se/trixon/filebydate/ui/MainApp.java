@@ -16,6 +16,7 @@
 package se.trixon.filebydate.ui;
 
 import de.codecentric.centerdevice.MenuToolkit;
+import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -26,6 +27,7 @@ import java.util.Date;
 import java.util.LinkedList;
 import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javafx.animation.FadeTransition;
@@ -51,6 +53,7 @@ import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.Spinner;
 import javafx.scene.control.ToolBar;
 import javafx.scene.image.Image;
 import javafx.scene.input.KeyCode;
@@ -90,6 +93,7 @@ import se.trixon.filebydate.NameCase;
 import se.trixon.filebydate.Operation;
 import se.trixon.filebydate.OperationListener;
 import se.trixon.filebydate.Options;
+import se.trixon.filebydate.Outcome;
 import se.trixon.filebydate.Profile;
 import se.trixon.filebydate.ProfileManager;
 
@@ -121,6 +125,7 @@ public class MainApp extends Application {
     private Profile mLastRunProfile;
     private ListView<Profile> mListView;
     private Action mLogAction;
+    private Operation mOperation;
     private OperationListener mOperationListener;
     private Thread mOperationThread;
     private final Options mOptions = Options.getInstance();
@@ -195,10 +200,18 @@ public class MainApp extends Application {
         Label label = new Label(Dict.CALENDAR_LANGUAGE.toString());
         LocaleComboBox localeComboBox = new LocaleComboBox();
         CheckBox checkBox = new CheckBox(Dict.DYNAMIC_WORD_WRAP.toString());
+        Label memoryLabel = new Label(mBundle.getString("plan_memory_budget"));
+        Spinner<Integer> memorySpinner = new Spinner<>(16, 65536, mOptions.getPlanMemoryBudget(), 16);
+        memorySpinner.setEditable(true);
+        Label threadsLabel = new Label(mBundle.getString("metadata_threads"));
+        Spinner<Integer> threadsSpinner = new Spinner<>(1, 256, mOptions.getMetadataThreads());
+        threadsSpinner.setEditable(true);
         GridPane gridPane = new GridPane();
         //gridPane.setGridLinesVisible(true);
-        gridPane.addColumn(0, label, localeComboBox, checkBox);
+        gridPane.addColumn(0, label, localeComboBox, checkBox, memoryLabel, memorySpinner, threadsLabel, threadsSpinner);
         GridPane.setMargin(checkBox, new Insets(16, 0, 0, 0));
+        GridPane.setMargin(memoryLabel, new Insets(16, 0, 0, 0));
+        GridPane.setMargin(threadsLabel, new Insets(16, 0, 0, 0));
 
         final DialogPane dialogPane = alert.getDialogPane();
         dialogPane.setContent(gridPane);
@@ -210,6 +223,8 @@ public class MainApp extends Application {
         if (result.get() == ButtonType.OK) {
             mOptions.setLocale(localeComboBox.getLocale());
             mOptions.setWordWrap(checkBox.isSelected());
+            mOptions.setPlanMemoryBudget(memorySpinner.getValue());
+            mOptions.setMetadataThreads(threadsSpinner.getValue());
         }
     }
 
@@ -240,7 +255,7 @@ public class MainApp extends Application {
 
         //cancel
         mCancelAction = new Action(Dict.CANCEL.toString(), (ActionEvent event) -> {
-            mOperationThread.interrupt();
+            mOperation.cancel();
         });
         mCancelAction.setGraphic(mFontAwesome.create(FontAwesome.Glyph.BAN).size(ICON_SIZE_TOOLBAR).color(mIconColor));
 
@@ -308,6 +323,11 @@ public class MainApp extends Application {
                 mSuccess = false;
             }
 
+            @Override
+            public void onOperationFileProcessed(File file, Outcome outcome, Supplier<String> message) {
+                mProgressPanel.out(message.get());
+            }
+
             @Override
             public void onOperationFinished(String message, int fileCount) {
                 setRunningState(RunState.CLOSEABLE);
@@ -492,9 +512,9 @@ public class MainApp extends Application {
 
             if (profile.isValid()) {
                 mLastRunProfile = profile;
+                mOperation = new Operation(mOperationListener, profile);
                 mOperationThread = new Thread(() -> {
-                    Operation operation = new Operation(mOperationListener, profile);
-                    operation.start();
+                    mOperation.start();
                 });
                 mOperationThread.setName("Operation");
                 mOperationThread.start();
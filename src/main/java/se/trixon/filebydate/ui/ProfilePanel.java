@@ -15,12 +15,15 @@
  */
 package se.trixon.filebydate.ui;
 
-import java.text.SimpleDateFormat;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.ResourceBundle;
 import java.util.function.Predicate;
 import javafx.application.Platform;
+import javafx.beans.binding.Bindings;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.geometry.Insets;
@@ -29,6 +32,7 @@ import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.SelectionMode;
+import javafx.scene.control.Spinner;
 import javafx.scene.control.TextField;
 import javafx.scene.control.Tooltip;
 import javafx.scene.layout.ColumnConstraints;
@@ -42,7 +46,9 @@ import se.trixon.almond.util.Dict;
 import se.trixon.almond.util.SystemHelper;
 import se.trixon.almond.util.fx.control.FileChooserPane;
 import se.trixon.almond.util.fx.control.FileChooserPane.ObjectMode;
+import se.trixon.filebydate.DateFolderFormat;
 import se.trixon.filebydate.DateSource;
+import se.trixon.filebydate.FileOrder;
 import se.trixon.filebydate.NameCase;
 import se.trixon.filebydate.Operation.Command;
 import se.trixon.filebydate.Options;
@@ -55,25 +61,40 @@ import se.trixon.filebydate.ProfileManager;
  */
 public class ProfilePanel extends GridPane {
 
+    private TextField mAdditionalSourcesTextField;
     private final ResourceBundle mBundleUI = SystemHelper.getBundle(MainApp.class, "Bundle");
     private ComboBox<NameCase> mCaseBaseComboBox;
     private ComboBox<NameCase> mCaseExtComboBox;
+    private CheckBox mDateCacheCheckBox;
     private ComboBox<String> mDatePatternComboBox;
     private Label mDatePatternLabel;
+    private ComboBox<String> mDateRulesComboBox;
     private ComboBox<DateSource> mDateSourceComboBox;
     private TextField mDescTextField;
     private FileChooserPane mDestChooserPane;
+    private ComboBox<String> mExcludeDirPatternComboBox;
+    private ComboBox<String> mExcludePatternComboBox;
+    private ComboBox<DateSource> mFallbackDateSourceComboBox;
+    private ComboBox<FileOrder> mFileOrderComboBox;
     private ComboBox<String> mFilePatternComboBox;
+    private CheckBox mGroupCheckBox;
+    private CheckBox mIncrementalCheckBox;
     private CheckBox mLinksCheckBox;
+    private ComboBox<String> mNameDatePatternComboBox;
     private TextField mNameTextField;
     private Button mOkButton;
+    private Spinner<Integer> mMaxDepthSpinner;
+    private Spinner<Integer> mMetadataTimeoutSpinner;
     private ComboBox<Command> mOperationComboBox;
     private final Options mOptions = Options.getInstance();
+    private CheckBox mParallelCheckBox;
     private final Profile mProfile;
     private final ProfileManager mProfileManager = ProfileManager.getInstance();
     private CheckBox mRecursiveCheckBox;
     private CheckBox mReplaceCheckBox;
+    private CheckBox mScanCacheCheckBox;
     private FileChooserPane mSourceChooserPane;
+    private CheckBox mStreamCheckBox;
 
     public ProfilePanel(Profile p) {
         mProfile = p;
@@ -82,16 +103,31 @@ public class ProfilePanel extends GridPane {
         mNameTextField.setText(p.getName());
         mDescTextField.setText(p.getDescription());
         mSourceChooserPane.setPath(p.getSourceDir());
+        mAdditionalSourcesTextField.setText(toPathList(p.getAdditionalSourceDirs()));
         mDestChooserPane.setPath(p.getDestDir());
         mFilePatternComboBox.setValue(p.getFilePattern());
+        mExcludePatternComboBox.setValue(p.getExcludePattern());
+        mExcludeDirPatternComboBox.setValue(p.getExcludeDirPattern());
+        mMaxDepthSpinner.getValueFactory().setValue(p.getMaxDepth());
+        mMetadataTimeoutSpinner.getValueFactory().setValue(p.getMetadataTimeout());
         mDateSourceComboBox.setValue(p.getDateSource());
         mDatePatternComboBox.setValue(p.getDatePattern());
+        mDateRulesComboBox.setValue(p.getDateRules());
+        mNameDatePatternComboBox.setValue(p.getNameDatePattern());
+        mFallbackDateSourceComboBox.setValue(p.getFallbackDateSource());
         mOperationComboBox.getSelectionModel().select(p.getCommand());
         mLinksCheckBox.setSelected(p.isFollowLinks());
+        mIncrementalCheckBox.setSelected(p.isIncremental());
+        mParallelCheckBox.setSelected(p.isParallelScan());
         mRecursiveCheckBox.setSelected(p.isRecursive());
         mReplaceCheckBox.setSelected(p.isReplaceExisting());
+        mStreamCheckBox.setSelected(p.isStreaming());
+        mScanCacheCheckBox.setSelected(p.isScanCache());
+        mDateCacheCheckBox.setSelected(p.isDateCache());
+        mGroupCheckBox.setSelected(p.isGroupByName());
         mCaseBaseComboBox.setValue(p.getCaseBase());
         mCaseExtComboBox.setValue(p.getCaseExt());
+        mFileOrderComboBox.setValue(p.getFileOrder());
 
         initListeners();
 
@@ -105,16 +141,31 @@ public class ProfilePanel extends GridPane {
         mProfile.setName(mNameTextField.getText().trim());
         mProfile.setDescription(mDescTextField.getText());
         mProfile.setSourceDir(mSourceChooserPane.getPath());
+        mProfile.setAdditionalSourceDirs(toFileList(mAdditionalSourcesTextField.getText()));
         mProfile.setDestDir(mDestChooserPane.getPath());
         mProfile.setFilePattern(mFilePatternComboBox.getValue());
+        mProfile.setExcludePattern(mExcludePatternComboBox.getValue());
+        mProfile.setExcludeDirPattern(mExcludeDirPatternComboBox.getValue());
+        mProfile.setMaxDepth(mMaxDepthSpinner.getValue());
+        mProfile.setMetadataTimeout(mMetadataTimeoutSpinner.getValue());
         mProfile.setDateSource(mDateSourceComboBox.getValue());
         mProfile.setDatePattern(mDatePatternComboBox.getValue());
+        mProfile.setDateRules(mDateRulesComboBox.getValue());
+        mProfile.setNameDatePattern(mNameDatePatternComboBox.getValue());
+        mProfile.setFallbackDateSource(mFallbackDateSourceComboBox.getValue());
         mProfile.setOperation(mOperationComboBox.getSelectionModel().getSelectedIndex());
         mProfile.setFollowLinks(mLinksCheckBox.isSelected());
+        mProfile.setIncremental(mIncrementalCheckBox.isSelected());
+        mProfile.setParallelScan(mParallelCheckBox.isSelected());
         mProfile.setRecursive(mRecursiveCheckBox.isSelected());
         mProfile.setReplaceExisting(mReplaceCheckBox.isSelected());
+        mProfile.setStreaming(mStreamCheckBox.isSelected());
+        mProfile.setScanCache(mScanCacheCheckBox.isSelected());
+        mProfile.setDateCache(mDateCacheCheckBox.isSelected());
+        mProfile.setGroupByName(mGroupCheckBox.isSelected());
         mProfile.setCaseBase(mCaseBaseComboBox.getValue());
         mProfile.setCaseExt(mCaseExtComboBox.getValue());
+        mProfile.setFileOrder(mFileOrderComboBox.getValue());
     }
 
     private void createUI() {
@@ -122,32 +173,62 @@ public class ProfilePanel extends GridPane {
 
         Label nameLabel = new Label(Dict.NAME.toString());
         Label descLabel = new Label(Dict.DESCRIPTION.toString());
+        Label additionalSourcesLabel = new Label(String.format(mBundleUI.getString("additional_sources"), File.pathSeparator));
         Label filePatternLabel = new Label(Dict.FILE_PATTERN.toString());
+        Label excludePatternLabel = new Label(mBundleUI.getString("exclude_pattern"));
+        Label excludeDirPatternLabel = new Label(mBundleUI.getString("exclude_dir_pattern"));
+        Label maxDepthLabel = new Label(mBundleUI.getString("max_depth"));
+        Label nameDatePatternLabel = new Label(mBundleUI.getString("name_date_pattern"));
+        Label fallbackDateSourceLabel = new Label(mBundleUI.getString("fallback_date_source"));
         Label dateSourceLabel = new Label(Dict.DATE_SOURCE.toString());
+        Label dateRulesLabel = new Label(mBundleUI.getString("date_rules"));
         mDatePatternLabel = new Label(Dict.DATE_PATTERN.toString());
         Label operationLabel = new Label(Dict.OPERATION.toString());
         Label caseBaseLabel = new Label(Dict.BASENAME.toString());
         Label caseExtLabel = new Label(Dict.EXTENSION.toString());
+        Label fileOrderLabel = new Label(mBundleUI.getString("file_order"));
+        Label metadataTimeoutLabel = new Label(mBundleUI.getString("metadata_timeout"));
 
         mLinksCheckBox = new CheckBox(Dict.FOLLOW_LINKS.toString());
         mRecursiveCheckBox = new CheckBox(Dict.RECURSIVE.toString());
         mReplaceCheckBox = new CheckBox(Dict.REPLACE.toString());
+        mStreamCheckBox = new CheckBox(mBundleUI.getString("streaming"));
+        mParallelCheckBox = new CheckBox(mBundleUI.getString("parallel_scan"));
+        mIncrementalCheckBox = new CheckBox(mBundleUI.getString("incremental"));
+        mScanCacheCheckBox = new CheckBox(mBundleUI.getString("scan_cache"));
+        mDateCacheCheckBox = new CheckBox(mBundleUI.getString("date_cache"));
+        mGroupCheckBox = new CheckBox(mBundleUI.getString("group_by_name"));
 
         mCaseBaseComboBox = new ComboBox<>();
         mDatePatternComboBox = new ComboBox<>();
+        mDateRulesComboBox = new ComboBox<>();
         mDateSourceComboBox = new ComboBox<>();
+        mExcludeDirPatternComboBox = new ComboBox<>();
+        mExcludePatternComboBox = new ComboBox<>();
+        mFallbackDateSourceComboBox = new ComboBox<>();
+        mFileOrderComboBox = new ComboBox<>();
         mFilePatternComboBox = new ComboBox<>();
+        mNameDatePatternComboBox = new ComboBox<>();
         mOperationComboBox = new ComboBox<>();
         mCaseExtComboBox = new ComboBox<>();
 
         mNameTextField = new TextField();
         mDescTextField = new TextField();
+        mAdditionalSourcesTextField = new TextField();
 
         mSourceChooserPane = new FileChooserPane(Dict.OPEN.toString(), Dict.SOURCE.toString(), ObjectMode.DIRECTORY, SelectionMode.SINGLE);
         mDestChooserPane = new FileChooserPane(Dict.OPEN.toString(), Dict.DESTINATION.toString(), ObjectMode.DIRECTORY, SelectionMode.SINGLE);
 
         mFilePatternComboBox.setEditable(true);
+        mExcludePatternComboBox.setEditable(true);
+        mExcludeDirPatternComboBox.setEditable(true);
+        mMaxDepthSpinner = new Spinner<>(0, 999, 0);
+        mMaxDepthSpinner.setEditable(true);
+        mMetadataTimeoutSpinner = new Spinner<>(0, 3600000, 0, 1000);
+        mMetadataTimeoutSpinner.setEditable(true);
         mDatePatternComboBox.setEditable(true);
+        mNameDatePatternComboBox.setEditable(true);
+        mDateRulesComboBox.setEditable(true);
         //mDatePatternLabel.setPrefWidth(300);
 
         int col = 0;
@@ -158,38 +239,54 @@ public class ProfilePanel extends GridPane {
         add(descLabel, col, ++row, REMAINING, 1);
         add(mDescTextField, col, ++row, REMAINING, 1);
         add(mSourceChooserPane, col, ++row, REMAINING, 1);
+        add(additionalSourcesLabel, col, ++row, REMAINING, 1);
+        add(mAdditionalSourcesTextField, col, ++row, REMAINING, 1);
         add(mDestChooserPane, col, ++row, REMAINING, 1);
 
         GridPane patternPane = new GridPane();
-        patternPane.addRow(0, filePatternLabel, dateSourceLabel, mDatePatternLabel);
-        patternPane.addRow(1, mFilePatternComboBox, mDateSourceComboBox, mDatePatternComboBox);
+        patternPane.addRow(0, filePatternLabel, excludePatternLabel, dateSourceLabel, mDatePatternLabel);
+        patternPane.addRow(1, mFilePatternComboBox, mExcludePatternComboBox, mDateSourceComboBox, mDatePatternComboBox);
+        patternPane.addRow(2, excludeDirPatternLabel, maxDepthLabel, nameDatePatternLabel, fallbackDateSourceLabel);
+        patternPane.addRow(3, mExcludeDirPatternComboBox, mMaxDepthSpinner, mNameDatePatternComboBox, mFallbackDateSourceComboBox);
+        patternPane.add(dateRulesLabel, 0, 4, 4, 1);
+        patternPane.add(mDateRulesComboBox, 0, 5, 4, 1);
         patternPane.setHgap(8);
         addRow(++row, patternPane);
 
         GridPane.setHgrow(mFilePatternComboBox, Priority.ALWAYS);
+        GridPane.setHgrow(mExcludePatternComboBox, Priority.ALWAYS);
         GridPane.setHgrow(mDateSourceComboBox, Priority.ALWAYS);
         GridPane.setHgrow(mDatePatternComboBox, Priority.ALWAYS);
 
         GridPane.setFillWidth(mFilePatternComboBox, true);
+        GridPane.setFillWidth(mExcludePatternComboBox, true);
         GridPane.setFillWidth(mDateSourceComboBox, true);
         GridPane.setFillWidth(mDatePatternComboBox, true);
 
-        double width = 100.0 / 3.0;
+        double width = 100.0 / 4.0;
         ColumnConstraints col1 = new ColumnConstraints();
         col1.setPercentWidth(width);
         ColumnConstraints col2 = new ColumnConstraints();
         col2.setPercentWidth(width);
         ColumnConstraints col3 = new ColumnConstraints();
         col3.setPercentWidth(width);
-        patternPane.getColumnConstraints().addAll(col1, col2, col3);
+        ColumnConstraints col4 = new ColumnConstraints();
+        col4.setPercentWidth(width);
+        patternPane.getColumnConstraints().addAll(col1, col2, col3, col4);
 
         mFilePatternComboBox.setMaxWidth(Double.MAX_VALUE);
+        mExcludePatternComboBox.setMaxWidth(Double.MAX_VALUE);
+        mExcludeDirPatternComboBox.setMaxWidth(Double.MAX_VALUE);
+        mMaxDepthSpinner.setMaxWidth(Double.MAX_VALUE);
         mDateSourceComboBox.setMaxWidth(Double.MAX_VALUE);
         mDatePatternComboBox.setMaxWidth(Double.MAX_VALUE);
+        mNameDatePatternComboBox.setMaxWidth(Double.MAX_VALUE);
+        mFallbackDateSourceComboBox.setMaxWidth(Double.MAX_VALUE);
+        mDateRulesComboBox.setMaxWidth(Double.MAX_VALUE);
         GridPane subPane = new GridPane();
         //subPane.setGridLinesVisible(true);
-        subPane.addRow(0, operationLabel, new Label(), new Label(), new Label(), caseBaseLabel, caseExtLabel);
-        subPane.addRow(1, mOperationComboBox, mLinksCheckBox, mRecursiveCheckBox, mReplaceCheckBox, mCaseBaseComboBox, mCaseExtComboBox);
+        subPane.addRow(0, operationLabel, new Label(), new Label(), new Label(), new Label(), new Label(), new Label(), new Label(), new Label(), new Label(), caseBaseLabel, caseExtLabel, fileOrderLabel, metadataTimeoutLabel);
+        subPane.addRow(1, mOperationComboBox, mLinksCheckBox, mRecursiveCheckBox, mReplaceCheckBox, mStreamCheckBox, mParallelCheckBox, mIncrementalCheckBox, mScanCacheCheckBox, mDateCacheCheckBox, mGroupCheckBox, mCaseBaseComboBox, mCaseExtComboBox, mFileOrderComboBox, mMetadataTimeoutSpinner);
         subPane.setHgap(8);
         add(subPane, col, ++row, REMAINING, 1);
 
@@ -198,13 +295,27 @@ public class ProfilePanel extends GridPane {
         GridPane.setMargin(mNameTextField, rowInsets);
         GridPane.setMargin(mDescTextField, rowInsets);
         GridPane.setMargin(mSourceChooserPane, rowInsets);
+        GridPane.setMargin(mAdditionalSourcesTextField, rowInsets);
         GridPane.setMargin(mDestChooserPane, rowInsets);
         GridPane.setMargin(patternPane, rowInsets);
 
         mFilePatternComboBox.setItems(FXCollections.observableArrayList(
                 "*",
                 "{*.jpg,*.JPG}",
-                "{*.mp4,*.MP4}"
+                "{*.mp4,*.MP4}",
+                "*.{jpg,jpeg,JPG,JPEG};*.{cr2,CR2,nef,NEF}"
+        ));
+
+        mExcludePatternComboBox.setItems(FXCollections.observableArrayList(
+                "",
+                "._*",
+                ".*"
+        ));
+
+        mExcludeDirPatternComboBox.setItems(FXCollections.observableArrayList(
+                "",
+                "@eaDir;.thumbnails;.git",
+                "@eaDir;.thumbnails;.git;*Previews.lrdata"
         ));
 
         mDatePatternComboBox.setItems(FXCollections.observableArrayList(
@@ -215,13 +326,42 @@ public class ProfilePanel extends GridPane {
                 "yyyy/ww/u"
         ));
 
+        mNameDatePatternComboBox.setItems(FXCollections.observableArrayList(
+                "",
+                "yyyyMMdd_HHmmss",
+                "yyyyMMdd",
+                "yyyy-MM-dd"
+        ));
+
+        mDateRulesComboBox.setItems(FXCollections.observableArrayList(
+                "",
+                "jpg,jpeg,heic,cr2,cr3,nef,dng=exif_original,file_modified;mp4,mov=exif_original,file_modified;*=file_modified",
+                "@jpeg,@tiff,@iso_media=exif_original,file_modified;*=file_name,file_modified"
+        ));
+
+        ArrayList<DateSource> fallbackDateSources = new ArrayList<>();
+        fallbackDateSources.add(null);
+        fallbackDateSources.addAll(Arrays.asList(DateSource.values()));
+
         mCaseBaseComboBox.setItems(FXCollections.observableArrayList(Arrays.asList(NameCase.values())));
         mCaseExtComboBox.setItems(FXCollections.observableArrayList(Arrays.asList(NameCase.values())));
+        mFileOrderComboBox.setItems(FXCollections.observableArrayList(Arrays.asList(FileOrder.values())));
         mDateSourceComboBox.setItems(FXCollections.observableArrayList(Arrays.asList(DateSource.values())));
+        mFallbackDateSourceComboBox.setItems(FXCollections.observableArrayList(fallbackDateSources));
         mOperationComboBox.setItems(FXCollections.observableArrayList(Arrays.asList(Command.COPY, Command.MOVE)));
     }
 
     private void initListeners() {
+        mMaxDepthSpinner.disableProperty().bind(mRecursiveCheckBox.selectedProperty().not());
+        mNameDatePatternComboBox.disableProperty().bind(Bindings.createBooleanBinding(() -> {
+            return mDateSourceComboBox.getValue() != DateSource.FILE_NAME
+                    && mFallbackDateSourceComboBox.getValue() != DateSource.FILE_NAME
+                    && !StringUtils.containsIgnoreCase(mDateRulesComboBox.getValue(), DateSource.FILE_NAME.name());
+        }, mDateSourceComboBox.valueProperty(), mFallbackDateSourceComboBox.valueProperty(), mDateRulesComboBox.valueProperty()));
+        mFallbackDateSourceComboBox.disableProperty().bind(mDateSourceComboBox.valueProperty().isEqualTo(DateSource.FILE_CREATED)
+                .or(mDateSourceComboBox.valueProperty().isEqualTo(DateSource.FILE_MODIFIED)));
+        mMetadataTimeoutSpinner.disableProperty().bind(mDateSourceComboBox.valueProperty().isNotEqualTo(DateSource.EXIF_ORIGINAL)
+                .and(mFallbackDateSourceComboBox.valueProperty().isNotEqualTo(DateSource.EXIF_ORIGINAL)));
     }
 
     private void initValidation() {
@@ -254,10 +394,26 @@ public class ProfilePanel extends GridPane {
             mFilePatternComboBox.setValue(newValue);
         });
 
+        mExcludePatternComboBox.getEditor().textProperty().addListener((observable, oldValue, newValue) -> {
+            mExcludePatternComboBox.setValue(newValue);
+        });
+
+        mExcludeDirPatternComboBox.getEditor().textProperty().addListener((observable, oldValue, newValue) -> {
+            mExcludeDirPatternComboBox.setValue(newValue);
+        });
+
         mDatePatternComboBox.getEditor().textProperty().addListener((observable, oldValue, newValue) -> {
             mDatePatternComboBox.setValue(newValue);
         });
 
+        mNameDatePatternComboBox.getEditor().textProperty().addListener((observable, oldValue, newValue) -> {
+            mNameDatePatternComboBox.setValue(newValue);
+        });
+
+        mDateRulesComboBox.getEditor().textProperty().addListener((observable, oldValue, newValue) -> {
+            mDateRulesComboBox.setValue(newValue);
+        });
+
         validationSupport.initInitialDecoration();
     }
 
@@ -266,8 +422,8 @@ public class ProfilePanel extends GridPane {
         String datePreview;
 
         try {
-            SimpleDateFormat simpleDateFormat = new SimpleDateFormat(mDatePatternComboBox.getValue(), mOptions.getLocale());
-            datePreview = simpleDateFormat.format(new Date(System.currentTimeMillis()));
+            DateFolderFormat dateFormat = DateFolderFormat.compile(mDatePatternComboBox.getValue(), mOptions.getLocale());
+            datePreview = dateFormat.format(new Date(System.currentTimeMillis()));
         } catch (IllegalArgumentException ex) {
             datePreview = Dict.Dialog.ERROR.toString();
             validFormat = false;
@@ -280,6 +436,26 @@ public class ProfilePanel extends GridPane {
         return validFormat;
     }
 
+    private List<File> toFileList(String paths) {
+        ArrayList<File> files = new ArrayList<>();
+        for (String path : StringUtils.split(paths, File.pathSeparator)) {
+            if (StringUtils.isNotBlank(path)) {
+                files.add(new File(path.trim()));
+            }
+        }
+
+        return files;
+    }
+
+    private String toPathList(List<File> files) {
+        ArrayList<String> paths = new ArrayList<>();
+        for (File file : files) {
+            paths.add(file.getPath());
+        }
+
+        return String.join(File.pathSeparator, paths);
+    }
+
     void setOkButton(Button button) {
         mOkButton = button;
     }